@@ -0,0 +1,107 @@
+package ch.admin.bag.covidcertificate.gateway.benchmark;
+
+import ch.admin.bag.covidcertificate.gateway.service.BearerTokenValidationService;
+import ch.admin.bag.covidcertificate.gateway.service.InvalidBearerTokenException;
+import ch.admin.bag.covidcertificate.gateway.service.JwtVerifierRegistry;
+import ch.admin.bag.covidcertificate.gateway.service.OtpRevocationService;
+import ch.admin.bag.covidcertificate.gateway.service.SecKpiEventSink;
+import ch.admin.bag.covidcertificate.gateway.service.VerifiedTokenCache;
+import ch.admin.bag.covidcertificate.gateway.service.model.UserAuthorizationData;
+import ch.admin.bag.covidcertificate.gateway.util.CustomTokenProviderUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.KeyPair;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import static ch.admin.bag.covidcertificate.gateway.benchmark.BenchmarkKeys.RSA_2048;
+import static ch.admin.bag.covidcertificate.gateway.benchmark.BenchmarkKeys.RSA_4096;
+
+/**
+ * Validation of a signed OTP as done for every create and revoke call authorized by <code>otp</code>. With
+ * <code>cached</code> the same OTP is validated over and over again, as a system does with a long-term OTP. The
+ * rejections of an expired and of a malformed OTP show what a flood of invalid tokens costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BearerTokenValidationBenchmark {
+
+    private static final long TOKEN_VALIDITY_MILLIS = TimeUnit.HOURS.toMillis(12);
+
+    @Param({RSA_2048, RSA_4096})
+    private int keySize;
+
+    @Param({"false", "true"})
+    private boolean cached;
+
+    private BearerTokenValidationService service;
+    private String token;
+    private String expiredToken;
+    private String malformedToken;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPair keyPair = BenchmarkKeys.rsaKeyPair(keySize);
+        Base64.Encoder encoder = Base64.getEncoder();
+
+        OtpRevocationService otpRevocationService = new OtpRevocationService(null) {
+            @Override
+            public boolean isRevoked(String jti) {
+                return false;
+            }
+        };
+        service = new BearerTokenValidationService(otpRevocationService, cached
+                ? new VerifiedTokenCache(1000, Duration.ofHours(1), new SimpleMeterRegistry())
+                : VerifiedTokenCache.disabled(), new JwtVerifierRegistry(null), SecKpiEventSink.disabled());
+        ReflectionTestUtils.setField(service, "publicKey", encoder.encodeToString(keyPair.getPublic().getEncoded()));
+        service.init();
+
+        CustomTokenProviderUtil tokenProvider = new CustomTokenProviderUtil(
+                TOKEN_VALIDITY_MILLIS, encoder.encodeToString(keyPair.getPrivate().getEncoded()), "benchmark");
+        token = tokenProvider.createToken("benchmark-user", "benchmark-idp");
+        expiredToken = new CustomTokenProviderUtil(0, encoder.encodeToString(keyPair.getPrivate().getEncoded()), "benchmark")
+                .createToken("benchmark-user", "benchmark-idp");
+        malformedToken = "eyJhbGciOiJSUzI1NiJ9." + token.substring(token.indexOf('.') + 2);
+    }
+
+    @Benchmark
+    public UserAuthorizationData validateOtp() throws InvalidBearerTokenException {
+        return service.validateOtpAndGetAuthData(token, "127.0.0.1");
+    }
+
+    @Benchmark
+    public InvalidBearerTokenException rejectExpiredOtp() {
+        return reject(expiredToken);
+    }
+
+    @Benchmark
+    public InvalidBearerTokenException rejectMalformedOtp() {
+        return reject(malformedToken);
+    }
+
+    private InvalidBearerTokenException reject(String invalidToken) {
+        try {
+            service.validateOtpAndGetAuthData(invalidToken, "127.0.0.1");
+            throw new IllegalStateException("Token was not rejected");
+        } catch (InvalidBearerTokenException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package ch.admin.bag.covidcertificate.gateway.benchmark;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class BenchmarkKeys {
+
+    public static final String RSA_2048 = "2048";
+    public static final String RSA_4096 = "4096";
+
+    public static KeyPair rsaKeyPair(int keySize) throws NoSuchAlgorithmException {
+        KeyPairGenerator keyPairGen = KeyPairGenerator.getInstance("RSA");
+        keyPairGen.initialize(keySize);
+        return keyPairGen.generateKeyPair();
+    }
+}
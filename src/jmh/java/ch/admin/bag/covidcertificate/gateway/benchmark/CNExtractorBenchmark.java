@@ -0,0 +1,33 @@
+package ch.admin.bag.covidcertificate.gateway.benchmark;
+
+import ch.admin.bag.covidcertificate.gateway.web.config.CNExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Common name extraction from the <code>X-Client-DN</code> header done by every authenticated request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CNExtractorBenchmark {
+
+    private final String subject = "C=CH,ST=Bern,L=Bern,O=Inselspital,OU=Informatik,CN=ZH-spital-A-t.bit.admin.ch";
+
+    @Benchmark
+    public String extract() {
+        return CNExtractor.extract(subject);
+    }
+}
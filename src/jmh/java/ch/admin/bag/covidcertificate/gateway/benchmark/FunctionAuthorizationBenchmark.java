@@ -0,0 +1,72 @@
+package ch.admin.bag.covidcertificate.gateway.benchmark;
+
+import ch.admin.bag.covidcertificate.authorization.AuthorizationConfig;
+import ch.admin.bag.covidcertificate.authorization.config.LocalDateTimeConverter;
+import ch.admin.bag.covidcertificate.authorization.config.RoleConfig;
+import ch.admin.bag.covidcertificate.authorization.impl.AuthorizationServiceImpl;
+import ch.admin.bag.covidcertificate.gateway.features.authorization.Function;
+import ch.admin.bag.covidcertificate.gateway.features.authorization.FunctionAuthorization;
+import ch.admin.bag.covidcertificate.gateway.service.model.UserAuthorizationData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.bind.PropertySourcesPlaceholdersResolver;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Function authorization against the role configuration shipped with cc-backend-authorization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FunctionAuthorizationBenchmark {
+
+    private FunctionAuthorization functionAuthorization;
+    private UserAuthorizationData userAuthorizationData;
+
+    @Setup
+    public void setUp() throws IOException {
+        StandardEnvironment environment = new StandardEnvironment();
+        new YamlPropertySourceLoader()
+                .load("authorization", new ClassPathResource("application-authorization.yml"))
+                .forEach(environment.getPropertySources()::addLast);
+        ApplicationConversionService conversionService = new ApplicationConversionService();
+        conversionService.addConverter(new LocalDateTimeConverter());
+        Binder binder = new Binder(ConfigurationPropertySources.get(environment),
+                new PropertySourcesPlaceholdersResolver(environment), conversionService);
+
+        AuthorizationServiceImpl authorizationService = new AuthorizationServiceImpl(
+                binder.bind("services", AuthorizationConfig.class).get(),
+                binder.bind("roles", RoleConfig.class).get());
+        ReflectionTestUtils.invokeMethod(authorizationService, "init");
+
+        functionAuthorization = new FunctionAuthorization(authorizationService);
+        userAuthorizationData = new UserAuthorizationData("benchmark-user", "benchmark-idp",
+                List.of("bag-cc-api_gw_user", "bag-cc-vacccert_creator"));
+    }
+
+    @Benchmark
+    public void validateUserAuthorization() {
+        functionAuthorization.validateUserAuthorization(userAuthorizationData, Function.CREATE_VACCINE_CERTIFICATE);
+    }
+}
@@ -0,0 +1,114 @@
+package ch.admin.bag.covidcertificate.gateway.benchmark;
+
+import ch.admin.bag.covidcertificate.gateway.error.ErrorResponseCatalog;
+import ch.admin.bag.covidcertificate.gateway.filters.BodyBufferPool;
+import ch.admin.bag.covidcertificate.gateway.filters.CertificateUtil;
+import ch.admin.bag.covidcertificate.gateway.filters.ClientCertificateCache;
+import ch.admin.bag.covidcertificate.gateway.filters.IntegrityFilter;
+import ch.admin.bag.covidcertificate.gateway.filters.IntegrityStageMetrics;
+import ch.admin.bag.covidcertificate.gateway.filters.PinnedClientKeyRegistry;
+import ch.admin.bag.covidcertificate.gateway.filters.VerifiedSignatureCache;
+import ch.admin.bag.covidcertificate.gateway.service.CryptoExecutor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import static ch.admin.bag.covidcertificate.gateway.benchmark.BenchmarkKeys.RSA_2048;
+import static ch.admin.bag.covidcertificate.gateway.benchmark.BenchmarkKeys.RSA_4096;
+import static ch.admin.bag.covidcertificate.gateway.benchmark.PayloadFixtures.SIZE_100_KB;
+import static ch.admin.bag.covidcertificate.gateway.benchmark.PayloadFixtures.SIZE_10_KB;
+import static ch.admin.bag.covidcertificate.gateway.benchmark.PayloadFixtures.SIZE_1_KB;
+
+/**
+ * Full integrity check of a signed request as done for every call to <code>/api/v1/covidcertificate/*</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IntegrityFilterBenchmark {
+
+    @Param({SIZE_1_KB, SIZE_10_KB, SIZE_100_KB})
+    private int payloadSize;
+
+    @Param({RSA_2048, RSA_4096})
+    private int keySize;
+
+    private IntegrityFilter integrityFilter;
+    private IntegrityFilter replayCachingIntegrityFilter;
+    private byte[] body;
+    private String certificateHeader;
+    private String signatureHeader;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPair keyPair = BenchmarkKeys.rsaKeyPair(keySize);
+        body = PayloadFixtures.vaccinationPayloadBytes(payloadSize);
+        certificateHeader = CertificateUtil.convertX509ToString(CertificateUtil.getX509Certificate(keyPair));
+
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(new String(body, StandardCharsets.UTF_8).replaceAll("[\\n\\r\\t ]", "").getBytes(StandardCharsets.UTF_8));
+        signatureHeader = Base64.getEncoder().encodeToString(signature.sign());
+
+        integrityFilter = new IntegrityFilter(new ErrorResponseCatalog(new ObjectMapper()), new ClientCertificateCache(100, new SimpleMeterRegistry()),
+                new BodyBufferPool(16 * 1024, 64), 1024 * 1024,
+                // max size 0 never caches, every request is verified
+                new VerifiedSignatureCache(0, 0, VerifiedSignatureCache.ReplayPolicy.ALLOW, new SimpleMeterRegistry()),
+                new IntegrityStageMetrics(new SimpleMeterRegistry(), false),
+                new PinnedClientKeyRegistry(null, false),
+                CryptoExecutor.disabled());
+        replayCachingIntegrityFilter = new IntegrityFilter(new ErrorResponseCatalog(new ObjectMapper()), new ClientCertificateCache(100, new SimpleMeterRegistry()),
+                new BodyBufferPool(16 * 1024, 64), 1024 * 1024,
+                new VerifiedSignatureCache(TimeUnit.HOURS.toMillis(1), 100, VerifiedSignatureCache.ReplayPolicy.ALLOW, new SimpleMeterRegistry()),
+                new IntegrityStageMetrics(new SimpleMeterRegistry(), false),
+                new PinnedClientKeyRegistry(null, false),
+                CryptoExecutor.disabled());
+    }
+
+    @Benchmark
+    public void verifySignedRequest(Blackhole blackhole) throws Exception {
+        filter(integrityFilter, blackhole);
+    }
+
+    @Benchmark
+    public void verifyReplayedRequest(Blackhole blackhole) throws Exception {
+        filter(replayCachingIntegrityFilter, blackhole);
+    }
+
+    private void filter(IntegrityFilter integrityFilter, Blackhole blackhole) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/v1/covidcertificate/vaccination");
+        request.setContent(body);
+        request.addHeader(IntegrityFilter.HEADER_KEY_NAME, certificateHeader);
+        request.addHeader(IntegrityFilter.HEADER_HASH_NAME, signatureHeader);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        FilterChain chain = (req, res) -> blackhole.consume(req);
+        integrityFilter.doFilter(request, response, chain);
+        if (response.getStatus() != 200) {
+            throw new IllegalStateException("Integrity check failed with status " + response.getStatus());
+        }
+    }
+}
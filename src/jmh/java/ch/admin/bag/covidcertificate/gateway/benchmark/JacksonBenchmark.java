@@ -0,0 +1,59 @@
+package ch.admin.bag.covidcertificate.gateway.benchmark;
+
+import ch.admin.bag.covidcertificate.gateway.service.dto.incoming.VaccinationCertificateCreateDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static ch.admin.bag.covidcertificate.gateway.benchmark.PayloadFixtures.SIZE_100_KB;
+import static ch.admin.bag.covidcertificate.gateway.benchmark.PayloadFixtures.SIZE_10_KB;
+import static ch.admin.bag.covidcertificate.gateway.benchmark.PayloadFixtures.SIZE_1_KB;
+
+/**
+ * (De)serialization of the vaccination create payload with an object mapper configured like Spring Boot's.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JacksonBenchmark {
+
+    @Param({SIZE_1_KB, SIZE_10_KB, SIZE_100_KB})
+    private int payloadSize;
+
+    private ObjectMapper objectMapper;
+    private byte[] payload;
+    private VaccinationCertificateCreateDto dto;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        payload = PayloadFixtures.vaccinationPayloadBytes(payloadSize);
+        dto = objectMapper.readValue(payload, VaccinationCertificateCreateDto.class);
+    }
+
+    @Benchmark
+    public VaccinationCertificateCreateDto deserialize() throws IOException {
+        return objectMapper.readValue(payload, VaccinationCertificateCreateDto.class);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return objectMapper.writeValueAsBytes(dto);
+    }
+}
@@ -0,0 +1,139 @@
+package ch.admin.bag.covidcertificate.gateway.benchmark;
+
+import ch.admin.bag.covidcertificate.gateway.domain.KpiData;
+import ch.admin.bag.covidcertificate.gateway.domain.KpiDataBatchRepository;
+import ch.admin.bag.covidcertificate.gateway.domain.KpiDataRepository;
+import ch.admin.bag.covidcertificate.gateway.domain.config.DataSourceConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceTransactionManagerAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.transaction.TransactionAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing kpi rows one by one through JPA as before the write-behind queue, with a JPA saveAll and with JDBC batches.
+ * Runs against an in-memory H2 by default, which hides the network round trips saved by batching. Set
+ * <code>KPI_BENCHMARK_URL=jdbc:postgresql://...</code> (and <code>KPI_BENCHMARK_USERNAME</code>,
+ * <code>KPI_BENCHMARK_PASSWORD</code>) to measure against PostgreSQL, the schema is then created by Hibernate.
+ * Environment variables are used because they reach the forked benchmark JVM, system properties of maven do not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KpiDataInsertBenchmark {
+
+    @Param({"1", "100", "1000"})
+    private int rows;
+
+    private ConfigurableApplicationContext context;
+    private KpiDataRepository kpiDataRepository;
+    private KpiDataBatchRepository kpiDataBatchRepository;
+    private JdbcTemplate jdbcTemplate;
+
+    @Setup
+    public void setUp() {
+        context = startContext();
+        kpiDataRepository = context.getBean(KpiDataRepository.class);
+        kpiDataBatchRepository = context.getBean(KpiDataBatchRepository.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncate() {
+        jdbcTemplate.execute("delete from kpi");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void perRowSave() {
+        for (KpiData kpiData : kpiData()) {
+            kpiDataRepository.save(kpiData);
+        }
+    }
+
+    @Benchmark
+    public void jpaSaveAll() {
+        kpiDataRepository.saveAll(kpiData());
+    }
+
+    @Benchmark
+    public void jdbcBatchInsert() {
+        kpiDataBatchRepository.insertAll(kpiData());
+    }
+
+    private List<KpiData> kpiData() {
+        List<KpiData> kpiData = new ArrayList<>(rows);
+        LocalDateTime timestamp = LocalDateTime.now();
+        for (int i = 0; i < rows; i++) {
+            kpiData.add(KpiData.builder().timestamp(timestamp).type("cn").value("client-" + i).build());
+        }
+        return kpiData;
+    }
+
+    static ConfigurableApplicationContext startContext() {
+        return new SpringApplicationBuilder(KpiPersistenceConfiguration.class)
+                .web(WebApplicationType.NONE)
+                // the application.yml of the service is not loaded
+                .properties("spring.config.name=kpi-benchmark")
+                .run("--spring.datasource.url=" + env("KPI_BENCHMARK_URL",
+                                "jdbc:h2:mem:kpi;MODE=PostgreSQL;DB_CLOSE_DELAY=-1;NON_KEYWORDS=VALUE"),
+                        "--spring.datasource.username=" + env("KPI_BENCHMARK_USERNAME", "sa"),
+                        "--spring.datasource.password=" + env("KPI_BENCHMARK_PASSWORD", ""),
+                        "--spring.datasource.hikari.data-source-properties.reWriteBatchedInserts=true",
+                        "--cc-api-gateway-service.kpi.datasource.hikari.data-source-properties.reWriteBatchedInserts=true",
+                        "--spring.jpa.hibernate.ddl-auto=create-drop",
+                        "--cc-api-gateway-service.kpi.insert-batch-size=500");
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? value : defaultValue;
+    }
+
+    @SpringBootConfiguration
+    @ImportAutoConfiguration({
+            DataSourceAutoConfiguration.class,
+            DataSourceTransactionManagerAutoConfiguration.class,
+            JdbcTemplateAutoConfiguration.class,
+            HibernateJpaAutoConfiguration.class,
+            TransactionAutoConfiguration.class})
+    @EntityScan(basePackageClasses = KpiData.class)
+    @EnableJpaRepositories(basePackageClasses = KpiDataRepository.class)
+    @Import({DataSourceConfig.class, KpiDataBatchRepository.class})
+    static class KpiPersistenceConfiguration {
+    }
+}
@@ -0,0 +1,102 @@
+package ch.admin.bag.covidcertificate.gateway.benchmark;
+
+import ch.admin.bag.covidcertificate.gateway.domain.KpiData;
+import ch.admin.bag.covidcertificate.gateway.domain.KpiDataBatchRepository;
+import ch.admin.bag.covidcertificate.gateway.domain.TimeOrderedUuid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Insert throughput of kpi batches with random and with time-ordered ids into a table that already holds
+ * {@link #prefilledRows} rows. The table keeps growing during the run, as it does in production, so the cost of
+ * inserting into random pages of the primary key index shows up. See {@link KpiDataInsertBenchmark} for running it
+ * against PostgreSQL.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class KpiIdBenchmark {
+
+    private static final int BATCH_SIZE = 500;
+
+    public enum IdStrategy {
+        RANDOM(UUID::randomUUID),
+        TIME_ORDERED(TimeOrderedUuid::next);
+
+        private final Supplier<UUID> generator;
+
+        IdStrategy(Supplier<UUID> generator) {
+            this.generator = generator;
+        }
+    }
+
+    @Param({"RANDOM", "TIME_ORDERED"})
+    private IdStrategy idStrategy;
+
+    @Param({"1000000"})
+    private int prefilledRows;
+
+    private ConfigurableApplicationContext context;
+    private KpiDataBatchRepository kpiDataBatchRepository;
+
+    @Setup
+    public void setUp() {
+        context = KpiDataInsertBenchmark.startContext();
+        kpiDataBatchRepository = context.getBean(KpiDataBatchRepository.class);
+        for (int i = 0; i < prefilledRows; i += BATCH_SIZE) {
+            kpiDataBatchRepository.insertAll(batch());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void insertBatch() {
+        kpiDataBatchRepository.insertAll(batch());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public UUID generateId() {
+        return idStrategy.generator.get();
+    }
+
+    private List<KpiData> batch() {
+        List<KpiData> kpiData = new ArrayList<>(BATCH_SIZE);
+        LocalDateTime timestamp = LocalDateTime.now();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            kpiData.add(KpiData.builder()
+                    .id(idStrategy.generator.get())
+                    .timestamp(timestamp)
+                    .type("cn")
+                    .value("client-" + i)
+                    .build());
+        }
+        return kpiData;
+    }
+}
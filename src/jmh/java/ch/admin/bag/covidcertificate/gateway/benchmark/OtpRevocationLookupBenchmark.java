@@ -0,0 +1,100 @@
+package ch.admin.bag.covidcertificate.gateway.benchmark;
+
+import ch.admin.bag.covidcertificate.gateway.domain.OtpRevocation;
+import ch.admin.bag.covidcertificate.gateway.domain.OtpRevocationRepository;
+import ch.admin.bag.covidcertificate.gateway.service.OtpRevocationService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Revocation check of an OTP that is not revoked, the common case, against {@link #revokedOtps} revocations. Compares
+ * the scan of the revocation list that was used before with the lookup in the jti set of {@link OtpRevocationService}
+ * and in a set of strings. The set lookups get a new jti string each time, as parsed from a token, its hash code is not
+ * cached yet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class OtpRevocationLookupBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    private int revokedOtps;
+
+    private List<OtpRevocation> otpRevocations;
+    private Set<String> stringSet;
+    private OtpRevocationService otpRevocationService;
+    private String revokedJti;
+    private String validJti;
+    private char[] validJtiChars;
+
+    @Setup
+    public void setUp() {
+        List<String> jtis = new ArrayList<>(revokedOtps);
+        otpRevocations = new ArrayList<>(revokedOtps);
+        for (int i = 0; i < revokedOtps; i++) {
+            String jti = UUID.randomUUID().toString();
+            OtpRevocation otpRevocation = new OtpRevocation();
+            ReflectionTestUtils.setField(otpRevocation, "jti", jti);
+            jtis.add(jti);
+            otpRevocations.add(otpRevocation);
+        }
+        // a fresh copy, equal but not identical to the stored jti, as it is when parsed from a token
+        revokedJti = new String(jtis.get(revokedOtps / 2));
+        validJti = UUID.randomUUID().toString();
+        validJtiChars = validJti.toCharArray();
+        stringSet = Set.copyOf(jtis);
+
+        OtpRevocationRepository otpRevocationRepository = mock(OtpRevocationRepository.class);
+        when(otpRevocationRepository.findAllJtis()).thenReturn(jtis);
+        otpRevocationService = new OtpRevocationService(otpRevocationRepository);
+        otpRevocationService.refresh();
+    }
+
+    @Benchmark
+    public boolean listScan() {
+        return otpRevocations.stream().anyMatch(otpRevocation -> otpRevocation.getJti().equals(validJti));
+    }
+
+    @Benchmark
+    public boolean stringSetLookup() {
+        return stringSet.contains(new String(validJtiChars));
+    }
+
+    @Benchmark
+    public boolean setLookup() {
+        return otpRevocationService.isRevoked(new String(validJtiChars));
+    }
+
+    @Benchmark
+    public boolean setLookupRevoked() {
+        return otpRevocationService.isRevoked(revokedJti);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void refresh() {
+        otpRevocationService.refresh();
+    }
+}
@@ -12,6 +12,7 @@ public class Constants {
     public static final String KPI_CREATE_CERTIFICATE_TYPE = "cc";
     public static final String KPI_REVOKE_CERTIFICATE_TYPE = "re";
     public static final String KPI_COMMON_NAME_TYPE = "cn";
+    public static final String KPI_OTP_TYPE = "otp";
     public static final String KPI_SYSTEM_API = "api";
     public static final DateTimeFormatter LOG_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
     public static final String KPI_TYPE_VACCINATION = "v";
@@ -0,0 +1,58 @@
+package ch.admin.bag.covidcertificate.gateway.domain;
+
+import ch.admin.bag.covidcertificate.gateway.domain.config.DataSourceConfig;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Inserts kpi rows with JDBC batching. Missing ids are generated on the client as {@link TimeOrderedUuid}s, like
+ * the generated id of {@link KpiData}. With <code>reWriteBatchedInserts</code> the PostgreSQL driver sends
+ * each batch as multi-row inserts.
+ */
+@Repository
+@RequiredArgsConstructor
+public class KpiDataBatchRepository {
+
+    private static final String INSERT_SQL = "insert into kpi (id, timestamp, type, value, uvci, details, country, fraud, in_app_delivery_code) "
+            + "values (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_MISSING_SQL = INSERT_SQL + " on conflict do nothing";
+
+    @Qualifier(DataSourceConfig.KPI_JDBC_TEMPLATE)
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${cc-api-gateway-service.kpi.insert-batch-size:500}")
+    private int batchSize;
+
+    @Transactional(DataSourceConfig.KPI_TRANSACTION_MANAGER)
+    public void insertAll(List<KpiData> kpiData) {
+        insert(INSERT_SQL, kpiData);
+    }
+
+    /**
+     * Like {@link #insertAll}, but rows with an already existing key are skipped, so events can be written again.
+     */
+    @Transactional(DataSourceConfig.KPI_TRANSACTION_MANAGER)
+    public void insertMissing(List<KpiData> kpiData) {
+        insert(INSERT_MISSING_SQL, kpiData);
+    }
+
+    private void insert(String sql, List<KpiData> kpiData) {
+        jdbcTemplate.batchUpdate(sql, kpiData, batchSize, (ps, kpi) -> {
+            ps.setObject(1, kpi.getId() != null ? kpi.getId() : TimeOrderedUuid.next());
+            ps.setObject(2, kpi.getTimestamp());
+            ps.setString(3, kpi.getType());
+            ps.setString(4, kpi.getValue());
+            ps.setString(5, kpi.getUvci());
+            ps.setString(6, kpi.getDetails());
+            ps.setString(7, kpi.getCountry());
+            ps.setBoolean(8, kpi.isFraud());
+            ps.setString(9, kpi.getInAppDeliveryCode());
+        });
+    }
+}
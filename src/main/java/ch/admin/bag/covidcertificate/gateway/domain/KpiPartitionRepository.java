@@ -0,0 +1,80 @@
+package ch.admin.bag.covidcertificate.gateway.domain;
+
+import ch.admin.bag.covidcertificate.gateway.domain.config.DataSourceConfig;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Monthly range partitions of the kpi table on PostgreSQL, see <code>V1_0_8__partition-kpi.sql</code>. Like all other
+ * objects after a migration, see <code>afterMigrate.sql</code>, the partitions are owned by the role
+ * <code>&lt;database&gt;_role_full</code> instead of the database user creating them. The database user must be a
+ * member of that role, which is also required to migrate the database.
+ */
+@Repository
+@RequiredArgsConstructor
+public class KpiPartitionRepository {
+
+    private static final String DEFAULT_PARTITION = "kpi_default";
+    private static final DateTimeFormatter PARTITION_NAME_FORMAT = DateTimeFormatter.ofPattern("'kpi_'yyyy_MM");
+    private static final String FIND_PARTITIONS_SQL = "select c.relname as name, "
+            + "substring(pg_get_expr(c.relpartbound, c.oid) from 'TO \\(''([^'']+)''\\)')::timestamp as upper_bound "
+            + "from pg_inherits i join pg_class c on c.oid = i.inhrelid "
+            + "where i.inhparent = 'kpi'::regclass";
+
+    @Qualifier(DataSourceConfig.KPI_JDBC_TEMPLATE)
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Takes a transaction scoped advisory lock, so only one instance maintains the partitions at a time.
+     *
+     * @return false if another instance holds the lock
+     */
+    public boolean tryLock() {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "select pg_try_advisory_xact_lock(hashtext('kpi_partition_maintenance'))", Boolean.class));
+    }
+
+    public List<KpiPartition> findPartitions() {
+        return jdbcTemplate.query(FIND_PARTITIONS_SQL,
+                (rs, rowNum) -> new KpiPartition(rs.getString("name"), rs.getObject("upper_bound", LocalDateTime.class)));
+    }
+
+    /**
+     * Creates the partition as a table of its own, moves the events of the month from the default partition into it
+     * and attaches it then. Creating it as partition directly would fail if the default partition holds such events.
+     */
+    public String createPartition(YearMonth month) {
+        String name = month.format(PARTITION_NAME_FORMAT);
+        LocalDate from = month.atDay(1);
+        LocalDate to = month.plusMonths(1).atDay(1);
+        jdbcTemplate.execute(String.format("create table %s (like kpi including defaults)", name));
+        // otherwise the next migration altering kpi fails if it runs as another database user
+        jdbcTemplate.execute(String.format("alter table %s owner to \"%s\"", name, ownerRole()));
+        jdbcTemplate.execute(String.format("with moved as (delete from %s where timestamp >= '%s' and timestamp < '%s' returning *) "
+                + "insert into %s select * from moved", DEFAULT_PARTITION, from, to, name));
+        jdbcTemplate.execute(String.format("alter table kpi attach partition %s for values from ('%s') to ('%s')", name, from, to));
+        return name;
+    }
+
+    private String ownerRole() {
+        return jdbcTemplate.queryForObject("select current_database() || '_role_full'", String.class).replace("\"", "\"\"");
+    }
+
+    public void dropPartition(KpiPartition partition) {
+        jdbcTemplate.execute("drop table \"" + partition.name().replace("\"", "\"\"") + "\"");
+    }
+
+    /**
+     * @param upperBound exclusive upper bound of the timestamps in the partition, null for a default partition
+     */
+    public record KpiPartition(String name, LocalDateTime upperBound) {
+    }
+}
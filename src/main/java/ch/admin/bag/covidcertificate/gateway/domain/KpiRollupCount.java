@@ -0,0 +1,9 @@
+package ch.admin.bag.covidcertificate.gateway.domain;
+
+import java.time.LocalDateTime;
+
+/**
+ * Number of KPI events of a type and value within the minute starting at <code>timestamp</code>.
+ */
+public record KpiRollupCount(LocalDateTime timestamp, String type, String value, long count) {
+}
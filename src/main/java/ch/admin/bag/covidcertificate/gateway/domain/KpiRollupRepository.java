@@ -0,0 +1,34 @@
+package ch.admin.bag.covidcertificate.gateway.domain;
+
+import ch.admin.bag.covidcertificate.gateway.domain.config.DataSourceConfig;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Writes minute counts of KPI events. Every instance writes its own rows, a minute may also be written more than once
+ * by an instance, so the counts of a minute have to be summed up.
+ */
+@Repository
+@RequiredArgsConstructor
+public class KpiRollupRepository {
+
+    private static final String INSERT_SQL = "insert into kpi_rollup (timestamp, type, value, count) values (?, ?, ?, ?)";
+
+    @Qualifier(DataSourceConfig.KPI_JDBC_TEMPLATE)
+    private final JdbcTemplate jdbcTemplate;
+
+    @Transactional(DataSourceConfig.KPI_TRANSACTION_MANAGER)
+    public void insertAll(List<KpiRollupCount> counts) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, counts, counts.size(), (ps, count) -> {
+            ps.setObject(1, count.timestamp());
+            ps.setString(2, count.type());
+            ps.setString(3, count.value());
+            ps.setLong(4, count.count());
+        });
+    }
+}
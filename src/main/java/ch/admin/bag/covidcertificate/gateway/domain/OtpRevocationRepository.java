@@ -1,6 +1,36 @@
 package ch.admin.bag.covidcertificate.gateway.domain;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
 
 public interface OtpRevocationRepository extends JpaRepository<OtpRevocation, String> {
+
+    @Query("select o.jti from OtpRevocation o")
+    List<String> findAllJtis();
+
+    @Query("select o.jti from OtpRevocation o where o.createdAt >= :since")
+    List<String> findAllJtisCreatedSince(@Param("since") LocalDateTime since);
+
+    @Query("select o.jti as jti, o.createdAt as createdAt from OtpRevocation o where o.createdAt >= :since")
+    List<RevokedJti> findJtisCreatedSince(@Param("since") LocalDateTime since);
+
+    @Query("select max(o.createdAt) from OtpRevocation o")
+    LocalDateTime findLatestCreatedAt();
+
+    @Transactional
+    @Modifying
+    @Query("delete from OtpRevocation o where o.createdAt < :before")
+    int deleteCreatedBefore(@Param("before") LocalDateTime before);
+
+    interface RevokedJti {
+        String getJti();
+
+        LocalDateTime getCreatedAt();
+    }
 }
@@ -0,0 +1,57 @@
+package ch.admin.bag.covidcertificate.gateway.domain;
+
+import java.time.Clock;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates time-ordered UUIDs in the layout of UUID version 7: 48 bits of unix milliseconds, a 12 bit sequence for
+ * ids of the same millisecond and 62 random bits. Consecutive ids of a JVM are strictly increasing, so inserts append
+ * to the right edge of the primary key index instead of touching random pages. The ids are still plain uuids, rows
+ * with random ids written before or by older instances keep working.
+ */
+public final class TimeOrderedUuid {
+
+    private static final TimeOrderedUuid INSTANCE = new TimeOrderedUuid(Clock.systemUTC());
+    private static final int MAX_SEQUENCE = 0xFFF;
+    private static final long VERSION_7 = 0x7000L;
+    private static final long VARIANT_RFC_4122 = 0x8000000000000000L;
+    private static final long RANDOM_MASK = 0x3FFFFFFFFFFFFFFFL;
+
+    private final Clock clock;
+    private long lastMillis;
+    private int sequence;
+
+    TimeOrderedUuid(Clock clock) {
+        this.clock = clock;
+    }
+
+    public static UUID next() {
+        return INSTANCE.generate();
+    }
+
+    /**
+     * @return the unix milliseconds a time-ordered uuid was generated at
+     */
+    public static long timestamp(UUID uuid) {
+        return uuid.getMostSignificantBits() >>> 16;
+    }
+
+    synchronized UUID generate() {
+        long millis = clock.millis();
+        if (millis > lastMillis) {
+            lastMillis = millis;
+            sequence = 0;
+        } else if (sequence < MAX_SEQUENCE) {
+            // same millisecond or the clock went backwards, stay monotonic
+            sequence++;
+        } else {
+            // sequence exhausted, borrow the next millisecond
+            lastMillis++;
+            sequence = 0;
+        }
+        long mostSigBits = (lastMillis << 16) | VERSION_7 | sequence;
+        long leastSigBits = (ThreadLocalRandom.current().nextLong() & RANDOM_MASK) | VARIANT_RFC_4122;
+        return new UUID(mostSigBits, leastSigBits);
+    }
+}
@@ -0,0 +1,19 @@
+package ch.admin.bag.covidcertificate.gateway.domain;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+
+import java.io.Serializable;
+
+/**
+ * Hibernate id generator for {@link TimeOrderedUuid}s.
+ */
+public class TimeOrderedUuidGenerator implements IdentifierGenerator {
+
+    public static final String NAME = "time-ordered-uuid";
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) {
+        return TimeOrderedUuid.next();
+    }
+}
@@ -0,0 +1,68 @@
+package ch.admin.bag.covidcertificate.gateway.domain.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.orm.jpa.JpaTransactionManager;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * The KPI writes get their own connection pool, so they do not compete with the reads of the JPA repositories, e.g.
+ * the reload of the OTP revocations. Both pools connect with the <code>spring.datasource</code> settings, the KPI pool
+ * is configured with <code>cc-api-gateway-service.kpi.datasource.hikari</code>. Hikari publishes the connection wait
+ * times of each pool as <code>hikaricp.connections.acquire</code>, tagged with the pool name.
+ */
+@Configuration
+public class DataSourceConfig {
+
+    public static final String KPI_JDBC_TEMPLATE = "kpiJdbcTemplate";
+    public static final String KPI_TRANSACTION_MANAGER = "kpiTransactionManager";
+
+    @Bean
+    @Primary
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @ConfigurationProperties("cc-api-gateway-service.kpi.datasource.hikari")
+    public HikariDataSource kpiDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    /**
+     * Replaces the JdbcTemplate of the auto-configuration, which backs off because of the KPI JdbcTemplate.
+     */
+    @Bean
+    @Primary
+    public JdbcTemplate jdbcTemplate(@Qualifier("dataSource") HikariDataSource dataSource) {
+        return new JdbcTemplate(dataSource);
+    }
+
+    @Bean(KPI_JDBC_TEMPLATE)
+    public JdbcTemplate kpiJdbcTemplate(@Qualifier("kpiDataSource") HikariDataSource kpiDataSource) {
+        return new JdbcTemplate(kpiDataSource);
+    }
+
+    /**
+     * Replaces the transaction manager of the JPA auto-configuration, which backs off as soon as there is another one.
+     */
+    @Bean
+    @Primary
+    public JpaTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
+        return new JpaTransactionManager(entityManagerFactory);
+    }
+
+    @Bean(KPI_TRANSACTION_MANAGER)
+    public DataSourceTransactionManager kpiTransactionManager(@Qualifier("kpiDataSource") HikariDataSource kpiDataSource) {
+        return new DataSourceTransactionManager(kpiDataSource);
+    }
+}
@@ -124,6 +124,18 @@ public class ErrorList {
     public static final String INVALID_OTP_LENGTH_JSON = ERROR_CODE_KEY + INVALID_OTP_LENGTH_CODE + ","
             + ERROR_MESSAGE_KEY + INVALID_OTP_LENGTH_MESSAGE + "}";
 
+    private static final int PAYLOAD_TOO_LARGE_CODE = 498;
+    private static final String PAYLOAD_TOO_LARGE_MESSAGE = "Request body exceeds the maximum allowed size";
+    public static final RestError PAYLOAD_TOO_LARGE = new RestError(PAYLOAD_TOO_LARGE_CODE, PAYLOAD_TOO_LARGE_MESSAGE, HttpStatus.PAYLOAD_TOO_LARGE);
+    public static final String PAYLOAD_TOO_LARGE_JSON = ERROR_CODE_KEY + PAYLOAD_TOO_LARGE_CODE + ","
+            + ERROR_MESSAGE_KEY + PAYLOAD_TOO_LARGE_MESSAGE + "}";
+
+    private static final int INTEGRITY_CHECK_ERROR_CODE = 499;
+    private static final String INTEGRITY_CHECK_ERROR_MESSAGE = "Error while checking the request integrity";
+    public static final RestError INTEGRITY_CHECK_ERROR = new RestError(INTEGRITY_CHECK_ERROR_CODE, INTEGRITY_CHECK_ERROR_MESSAGE, HttpStatus.INTERNAL_SERVER_ERROR);
+    public static final String INTEGRITY_CHECK_ERROR_JSON = ERROR_CODE_KEY + INTEGRITY_CHECK_ERROR_CODE + ","
+            + ERROR_MESSAGE_KEY + INTEGRITY_CHECK_ERROR_MESSAGE + "}";
+
     public static final RestError EIAM_CALL_ERROR = new RestError(
         497,
             "Error when calling eIAM AdminService queryUsers.",
@@ -133,4 +145,10 @@ public class ErrorList {
     // Conflict
     public static final String DUPLICATE_UVCI = ERROR_CODE_KEY + 480 + ","
             + ERROR_MESSAGE_KEY + "Duplicate UVCI.}";
+
+    private static final int REPLAYED_REQUEST_CODE = 481;
+    private static final String REPLAYED_REQUEST_MESSAGE = "Identical signed request was already processed";
+    public static final RestError REPLAYED_REQUEST = new RestError(REPLAYED_REQUEST_CODE, REPLAYED_REQUEST_MESSAGE, HttpStatus.CONFLICT);
+    public static final String REPLAYED_REQUEST_JSON = ERROR_CODE_KEY + REPLAYED_REQUEST_CODE + ","
+            + ERROR_MESSAGE_KEY + REPLAYED_REQUEST_MESSAGE + "}";
 }
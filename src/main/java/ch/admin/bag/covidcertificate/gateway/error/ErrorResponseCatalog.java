@@ -0,0 +1,67 @@
+package ch.admin.bag.covidcertificate.gateway.error;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * JSON bodies of all {@link RestError} constants in {@link ErrorList}, serialized once at startup. Errors which are
+ * not constants, e.g. created from the response of another service, are serialized on every call.
+ */
+@Slf4j
+public class ErrorResponseCatalog {
+
+    private final ObjectMapper objectMapper;
+    private final Map<RestError, byte[]> responses;
+
+    public ErrorResponseCatalog(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        Map<RestError, byte[]> serialized = new IdentityHashMap<>();
+        for (Field field : ErrorList.class.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == RestError.class) {
+                try {
+                    RestError restError = (RestError) field.get(null);
+                    serialized.put(restError, objectMapper.writeValueAsBytes(restError));
+                } catch (IllegalAccessException | JsonProcessingException e) {
+                    throw new IllegalStateException("Unable to serialize error " + field.getName(), e);
+                }
+            }
+        }
+        this.responses = Collections.unmodifiableMap(serialized);
+        log.info("Serialized {} error responses", responses.size());
+    }
+
+    public boolean contains(RestError restError) {
+        return responses.containsKey(restError);
+    }
+
+    public void write(RestError restError, OutputStream outputStream) throws IOException {
+        outputStream.write(serialize(restError));
+    }
+
+    /**
+     * Writes status, content type and body of the error to the response.
+     */
+    public void write(RestError restError, HttpServletResponse response) throws IOException {
+        byte[] body = serialize(restError);
+        response.setStatus(restError.getHttpStatus().value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private byte[] serialize(RestError restError) throws JsonProcessingException {
+        byte[] body = responses.get(restError);
+        return body != null ? body : objectMapper.writeValueAsBytes(restError);
+    }
+}
@@ -0,0 +1,48 @@
+package ch.admin.bag.covidcertificate.gateway.filters;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of equally sized byte arrays used to buffer request bodies. Requests with a body that does not fit
+ * into a pooled buffer get a dedicated array which is left to the garbage collector after the request.
+ */
+public class BodyBufferPool {
+
+    private final int bufferSize;
+    private final BlockingQueue<byte[]> idleBuffers;
+
+    public BodyBufferPool(int bufferSize, int maxIdleBuffers) {
+        this.bufferSize = bufferSize;
+        this.idleBuffers = new ArrayBlockingQueue<>(maxIdleBuffers);
+    }
+
+    /**
+     * @param minSize minimal size of the returned buffer
+     * @return a pooled buffer if <code>minSize</code> fits into it, otherwise a new array of <code>minSize</code>
+     */
+    public byte[] acquire(int minSize) {
+        if (minSize > bufferSize) {
+            return new byte[minSize];
+        }
+        byte[] buffer = idleBuffers.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    /**
+     * Returns the buffer to the pool. Buffers not acquired from the pool or exceeding the idle capacity are dropped.
+     */
+    public void release(byte[] buffer) {
+        if (buffer != null && buffer.length == bufferSize) {
+            idleBuffers.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    int getIdleBufferCount() {
+        return idleBuffers.size();
+    }
+}
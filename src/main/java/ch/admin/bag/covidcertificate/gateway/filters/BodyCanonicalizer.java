@@ -0,0 +1,51 @@
+package ch.admin.bag.covidcertificate.gateway.filters;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.security.Signature;
+import java.security.SignatureException;
+
+/**
+ * Canonical form of a request body used for the content signature: the body bytes without any
+ * <code>\n</code>, <code>\r</code>, <code>\t</code> or space. These bytes never occur inside a multibyte
+ * UTF-8 sequence, so skipping them on the raw bytes is equivalent to removing them from the decoded text.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class BodyCanonicalizer {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    /**
+     * Feeds the canonical form of the body into the signature in fixed size chunks.
+     */
+    public static void update(Signature signature, byte[] body) throws SignatureException {
+        update(signature, body, body.length);
+    }
+
+    /**
+     * Feeds the canonical form of the first <code>bodyLength</code> bytes of the body into the signature.
+     */
+    public static void update(Signature signature, byte[] body, int bodyLength) throws SignatureException {
+        byte[] chunk = new byte[Math.min(CHUNK_SIZE, bodyLength)];
+        int length = 0;
+        for (int i = 0; i < bodyLength; i++) {
+            byte b = body[i];
+            if (isWhitespace(b)) {
+                continue;
+            }
+            chunk[length++] = b;
+            if (length == chunk.length) {
+                signature.update(chunk, 0, length);
+                length = 0;
+            }
+        }
+        if (length > 0) {
+            signature.update(chunk, 0, length);
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+}
@@ -1,32 +1,108 @@
 package ch.admin.bag.covidcertificate.gateway.filters;
 
-import org.springframework.util.StreamUtils;
-
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import java.io.*;
+import java.util.Arrays;
 
 public class CachedBodyHttpServletRequest extends HttpServletRequestWrapper {
 
+    private final BodyBufferPool bodyBufferPool;
     private byte[] cachedBody;
+    private int cachedBodyLength;
 
-    public CachedBodyHttpServletRequest(HttpServletRequest request) throws IOException {
+    /**
+     * Reads the whole body of the request into a buffer rented from the pool.
+     *
+     * @throws PayloadTooLargeException if the declared content length or the body read so far exceeds
+     *                                  <code>maxBodySize</code>, nothing more is read from the request in that case
+     */
+    public CachedBodyHttpServletRequest(HttpServletRequest request, BodyBufferPool bodyBufferPool, int maxBodySize) throws IOException {
         super(request);
-        InputStream requestInputStream = request.getInputStream();
-        this.cachedBody = StreamUtils.copyToByteArray(requestInputStream);
+        long contentLength = request.getContentLengthLong();
+        if (contentLength > maxBodySize) {
+            throw new PayloadTooLargeException(maxBodySize);
+        }
+        this.bodyBufferPool = bodyBufferPool;
+        this.cachedBody = bodyBufferPool.acquire((int) Math.max(contentLength, 0));
+        try {
+            readBody(request.getInputStream(), maxBodySize);
+        } catch (IOException e) {
+            release();
+            throw e;
+        }
+    }
+
+    private void readBody(InputStream requestInputStream, int maxBodySize) throws IOException {
+        while (true) {
+            int read = requestInputStream.read(cachedBody, cachedBodyLength, cachedBody.length - cachedBodyLength);
+            if (read == -1) {
+                return;
+            }
+            cachedBodyLength += read;
+            if (cachedBodyLength > maxBodySize) {
+                throw new PayloadTooLargeException(maxBodySize);
+            }
+            if (cachedBodyLength == cachedBody.length) {
+                // a body filling the buffer exactly, e.g. of the declared content length, needs no larger buffer
+                int next = requestInputStream.read();
+                if (next == -1) {
+                    return;
+                }
+                if (cachedBodyLength == maxBodySize) {
+                    throw new PayloadTooLargeException(maxBodySize);
+                }
+                int newSize = (int) Math.min((long) cachedBody.length * 2, maxBodySize);
+                byte[] grown = Arrays.copyOf(cachedBody, Math.max(newSize, cachedBody.length + 1));
+                bodyBufferPool.release(cachedBody);
+                cachedBody = grown;
+                cachedBody[cachedBodyLength++] = (byte) next;
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the body, use {@link #withCachedBody} to read the body without copying it
+     */
+    public byte[] getCachedBody() {
+        return Arrays.copyOf(this.cachedBody, this.cachedBodyLength);
+    }
+
+    /**
+     * Passes the pooled buffer holding the body to the function, together with the length of the body. Bytes beyond
+     * the length are left over from previous requests. The function must not keep the buffer.
+     */
+    public <T, E extends Exception> T withCachedBody(CachedBodyFunction<T, E> function) throws E {
+        return function.apply(this.cachedBody, this.cachedBodyLength);
+    }
+
+    public int getCachedBodyLength() {
+        return this.cachedBodyLength;
+    }
+
+    /**
+     * Returns the body buffer to the pool. Must only be called once the request has been processed completely.
+     */
+    public void release() {
+        bodyBufferPool.release(this.cachedBody);
+        this.cachedBody = new byte[0];
+        this.cachedBodyLength = 0;
     }
 
     @Override
     public ServletInputStream getInputStream() {
-        return new CachedBodyServletInputStream(this.cachedBody);
+        return new CachedBodyServletInputStream(this.cachedBody, this.cachedBodyLength);
     }
 
     @Override
     public BufferedReader getReader() {
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(this.cachedBody);
+        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(this.cachedBody, 0, this.cachedBodyLength);
         return new BufferedReader(new InputStreamReader(byteArrayInputStream));
     }
 
-
+    @FunctionalInterface
+    public interface CachedBodyFunction<T, E extends Exception> {
+        T apply(byte[] buffer, int length) throws E;
+    }
 }
@@ -1,35 +1,88 @@
 package ch.admin.bag.covidcertificate.gateway.filters;
 
-import lombok.extern.slf4j.Slf4j;
-
 import javax.servlet.ReadListener;
 import javax.servlet.ServletInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Objects;
 
-@Slf4j
+/**
+ * Unsynchronized stream over the cached body. All bulk operations copy directly from the cached array
+ * instead of falling back to the byte-by-byte defaults of {@link java.io.InputStream}.
+ */
 public class CachedBodyServletInputStream extends ServletInputStream {
 
-    private final InputStream cachedBodyInputStream;
+    private final byte[] cachedBody;
+    private final int length;
+    private int position;
 
     public CachedBodyServletInputStream(byte[] cachedBody) {
-        this.cachedBodyInputStream = new ByteArrayInputStream(cachedBody);
+        this(cachedBody, cachedBody.length);
+    }
+
+    public CachedBodyServletInputStream(byte[] cachedBody, int length) {
+        this.cachedBody = cachedBody;
+        this.length = length;
     }
 
     @Override
-    public int read() throws IOException {
-        return cachedBodyInputStream.read();
+    public int read() {
+        return position < length ? cachedBody[position++] & 0xff : -1;
     }
 
     @Override
-    public boolean isFinished() {
-        try {
-            return cachedBodyInputStream.available() == 0;
-        } catch (IOException e) {
-            log.error("Exception during reading", e);
-            throw new IllegalStateException(e);
+    public int read(byte[] b, int off, int len) {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            return -1;
         }
+        int count = Math.min(len, length - position);
+        System.arraycopy(cachedBody, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public byte[] readAllBytes() {
+        byte[] result = Arrays.copyOfRange(cachedBody, position, length);
+        position = length;
+        return result;
+    }
+
+    @Override
+    public int readNBytes(byte[] b, int off, int len) {
+        int read = read(b, off, len);
+        return read == -1 ? 0 : read;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, length - position));
+        position += (int) skipped;
+        return skipped;
+    }
+
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+        Objects.requireNonNull(out, "out");
+        int count = length - position;
+        out.write(cachedBody, position, count);
+        position = length;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return length - position;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return position >= length;
     }
 
     @Override
@@ -0,0 +1,108 @@
+package ch.admin.bag.covidcertificate.gateway.filters;
+
+import ch.admin.bag.covidcertificate.gateway.service.util.CacheUtils;
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HexFormat;
+
+/**
+ * Bounded concurrent cache from the SHA-256 digest of the <code>X-Client-Cert</code> header to the parsed public key.
+ * Only certificates within their validity period are cached, an entry is dropped as soon as it expires.
+ */
+@Slf4j
+public class ClientCertificateCache {
+
+    private static final String METRIC_NAME = "cc.api.gateway.integrity.certificate.cache";
+
+    private final Cache<String, CachedPublicKey> cache;
+    private final Clock clock;
+    private final Counter hits;
+    private final Counter misses;
+
+    public ClientCertificateCache(int maxSize, MeterRegistry meterRegistry) {
+        this(maxSize, meterRegistry, Clock.systemUTC());
+    }
+
+    ClientCertificateCache(int maxSize, MeterRegistry meterRegistry, Clock clock) {
+        this.cache = CacheUtils.boundedCache(maxSize);
+        this.clock = clock;
+        this.hits = Counter.builder(METRIC_NAME).tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder(METRIC_NAME).tag("result", "miss").register(meterRegistry);
+        meterRegistry.gauge(METRIC_NAME + ".size", Collections.emptyList(), cache, Cache::estimatedSize);
+    }
+
+    /**
+     * Returns the public key of the base64 encoded X.509 certificate, parsing it only if it is not cached yet.
+     *
+     * @param encodedCertificate base64 encoded DER certificate as sent in the header
+     * @return the public key of the certificate
+     * @throws KeyException if the header could not be decoded or parsed
+     */
+    public PublicKey getPublicKey(String encodedCertificate) throws KeyException {
+        String digest = digest(encodedCertificate);
+        Instant now = clock.instant();
+
+        CachedPublicKey cached = cache.getIfPresent(digest);
+        if (cached != null) {
+            if (cached.isValidAt(now)) {
+                hits.increment();
+                return cached.publicKey();
+            }
+            cache.invalidate(digest);
+        }
+
+        misses.increment();
+        X509Certificate certificate = parse(encodedCertificate);
+        CachedPublicKey parsed = new CachedPublicKey(
+                certificate.getPublicKey(),
+                certificate.getNotBefore().toInstant(),
+                certificate.getNotAfter().toInstant());
+        if (parsed.isValidAt(now)) {
+            cache.put(digest, parsed);
+        } else {
+            log.debug("Client certificate is outside of its validity period, not caching it");
+        }
+        return parsed.publicKey();
+    }
+
+    private static X509Certificate parse(String encodedCertificate) throws KeyException {
+        try {
+            byte[] decoded = Base64.getDecoder().decode(encodedCertificate.getBytes(StandardCharsets.UTF_8));
+            CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
+            return (X509Certificate) certFactory.generateCertificate(new ByteArrayInputStream(decoded));
+        } catch (Exception e) {
+            log.warn("Unable to create public key from header", e);
+            throw new KeyException(e);
+        }
+    }
+
+    private static String digest(String encodedCertificate) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(messageDigest.digest(encodedCertificate.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record CachedPublicKey(PublicKey publicKey, Instant notBefore, Instant notAfter) {
+        boolean isValidAt(Instant instant) {
+            return !instant.isBefore(notBefore) && !instant.isAfter(notAfter);
+        }
+    }
+}
@@ -1,29 +1,36 @@
 package ch.admin.bag.covidcertificate.gateway.filters;
 
+import ch.admin.bag.covidcertificate.gateway.error.ErrorResponseCatalog;
 import ch.admin.bag.covidcertificate.gateway.error.RestError;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import ch.admin.bag.covidcertificate.gateway.filters.IntegrityStageMetrics.Outcome;
+import ch.admin.bag.covidcertificate.gateway.filters.IntegrityStageMetrics.Stage;
+import ch.admin.bag.covidcertificate.gateway.filters.IntegrityStageMetrics.Timing;
+import ch.admin.bag.covidcertificate.gateway.filters.PinnedClientKeyRegistry.PinnedKey;
+import ch.admin.bag.covidcertificate.gateway.filters.VerifiedSignatureCache.ReplayedRequestException;
+import ch.admin.bag.covidcertificate.gateway.service.CryptoExecutor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.MediaType;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.filter.OncePerRequestFilter;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.security.KeyException;
 import java.security.PublicKey;
 import java.security.Signature;
-import java.security.cert.CertificateFactory;
-import java.security.cert.X509Certificate;
 import java.util.Base64;
-import java.util.stream.Collectors;
 
+import static ch.admin.bag.covidcertificate.gateway.error.ErrorList.INTEGRITY_CHECK_ERROR;
 import static ch.admin.bag.covidcertificate.gateway.error.ErrorList.INVALID_SIGNATURE;
+import static ch.admin.bag.covidcertificate.gateway.error.ErrorList.PAYLOAD_TOO_LARGE;
+import static ch.admin.bag.covidcertificate.gateway.error.ErrorList.REPLAYED_REQUEST;
 import static ch.admin.bag.covidcertificate.gateway.error.ErrorList.SIGNATURE_PARSE;
 
 @Slf4j
@@ -31,38 +38,62 @@ import static ch.admin.bag.covidcertificate.gateway.error.ErrorList.SIGNATURE_PA
 public class IntegrityFilter extends OncePerRequestFilter {
     public static final String HEADER_KEY_NAME = "X-Client-Cert";
     public static final String HEADER_HASH_NAME = "X-Signature";
-    private final ObjectMapper mapper;
+    public static final String HEADER_DN_NAME = "X-Client-DN";
+    private static final String VERIFIED_SECURITY_CONTEXT_ATTRIBUTE = IntegrityFilter.class.getName() + ".VERIFIED_SECURITY_CONTEXT";
+    private final ErrorResponseCatalog errorResponseCatalog;
+    private final ClientCertificateCache clientCertificateCache;
+    private final BodyBufferPool bodyBufferPool;
+    private final int maxBodySize;
+    private final VerifiedSignatureCache verifiedSignatureCache;
+    private final IntegrityStageMetrics integrityStageMetrics;
+    private final PinnedClientKeyRegistry pinnedClientKeyRegistry;
+    private final CryptoExecutor cryptoExecutor;
 
-    private static PublicKey getKey(byte[] key) throws KeyException {
-        try {
-            CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
-            InputStream inputStream = new ByteArrayInputStream(key);
-            X509Certificate certificate = (X509Certificate) certFactory.generateCertificate(inputStream);
-            return certificate.getPublicKey();
-        } catch (Exception e) {
-            log.warn("Unable to create public key from header", e);
-            throw new KeyException(e);
-        }
-    }
-
-    private static boolean checkIntegrity(CachedBodyHttpServletRequest request) throws SignatureParseException {
+    /**
+     * @return OK or CACHED if the signature is valid, INVALID otherwise
+     */
+    private Outcome checkIntegrity(CachedBodyHttpServletRequest request, Timing timing) throws SignatureParseException, ReplayedRequestException {
         Base64.Decoder decoder = Base64.getDecoder();
         String signaturePublicKey = request.getHeader(HEADER_KEY_NAME);
         String signatureHash = request.getHeader(HEADER_HASH_NAME);
 
-        if (signaturePublicKey != null && signatureHash != null) {
+        PinnedKey pinnedKey = pinnedClientKeyRegistry.find(request.getHeader(HEADER_DN_NAME));
+        if (pinnedKey == null && pinnedClientKeyRegistry.isRequired()) {
+            log.info("No pinned key for client, not processing request");
+            throw new SignatureParseException();
+        }
+        // the pinned key is identified by its fingerprint, the X-Client-Cert header is not needed then
+        String keyIdentity = pinnedKey != null ? pinnedKey.fingerprint() : signaturePublicKey;
+
+        if (keyIdentity != null && signatureHash != null) {
+            timing.begin(Stage.REPLAY_CACHE);
+            String verifiedKey = request.withCachedBody((body, length) -> verifiedSignatureCache.key(keyIdentity, signatureHash, body, length));
+            if (verifiedSignatureCache.isVerified(verifiedKey)) {
+                return Outcome.CACHED;
+            }
             try {
-                byte[] decodedPublicKey = decoder.decode(signaturePublicKey.getBytes(StandardCharsets.UTF_8));
+                timing.begin(Stage.DECODE);
                 byte[] decodedHash = decoder.decode(signatureHash.getBytes(StandardCharsets.UTF_8));
 
-                String body = request.getReader().lines().collect(Collectors.joining()).replaceAll("[\\n\\r\\t ]", "");
-                PublicKey publicKey = getKey(decodedPublicKey);
+                timing.begin(Stage.CERTIFICATE);
+                PublicKey publicKey = pinnedKey != null ? pinnedKey.publicKey() : clientCertificateCache.getPublicKey(signaturePublicKey);
 
+                timing.begin(Stage.CANONICALIZATION);
                 Signature signature = Signature.getInstance("SHA256withRSA");
                 signature.initVerify(publicKey);
-                signature.update(body.getBytes());
+                request.withCachedBody((body, length) -> {
+                    BodyCanonicalizer.update(signature, body, length);
+                    return null;
+                });
 
-                return signature.verify(decodedHash);
+                timing.begin(Stage.VERIFY);
+                boolean verified = signature.verify(decodedHash);
+                timing.end();
+                if (verified) {
+                    verifiedSignatureCache.markVerified(verifiedKey);
+                    return Outcome.OK;
+                }
+                return Outcome.INVALID;
             } catch (Exception e) {
                 log.warn("Error while verifying request integrity", e);
             }
@@ -74,25 +105,150 @@ public class IntegrityFilter extends OncePerRequestFilter {
 
     @Override
     protected void doFilterInternal(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, FilterChain filterChain) throws ServletException, IOException {
-        CachedBodyHttpServletRequest wrappedRequest = new CachedBodyHttpServletRequest(httpServletRequest);
-        RestError restError = null;
+        if (isAsyncDispatch(httpServletRequest)) {
+            forwardVerified(httpServletRequest, httpServletResponse, filterChain);
+            return;
+        }
+
+        CachedBodyHttpServletRequest wrappedRequest;
         try {
-            if (checkIntegrity(wrappedRequest)) {
-                log.info("Integrity check successful, forwarding request");
+            wrappedRequest = new CachedBodyHttpServletRequest(httpServletRequest, bodyBufferPool, maxBodySize);
+        } catch (PayloadTooLargeException e) {
+            log.info("Request body exceeds the maximum size of {} bytes, not processing request", maxBodySize);
+            writeError(httpServletResponse, PAYLOAD_TOO_LARGE);
+            return;
+        }
+
+        if (cryptoExecutor.isEnabled() && httpServletRequest.isAsyncSupported()) {
+            verifyAsync(wrappedRequest, httpServletRequest, httpServletResponse);
+            return;
+        }
+
+        try {
+            RestError restError = verify(wrappedRequest, httpServletRequest, httpServletResponse);
+            if (restError == null) {
                 filterChain.doFilter(wrappedRequest, httpServletResponse);
             } else {
-                log.info("Integrity check failed, not processing request: " + httpServletRequest.getMethod() + " " + httpServletRequest.getRequestURI());
-                restError = INVALID_SIGNATURE;
+                writeError(httpServletResponse, restError);
             }
+        } finally {
+            wrappedRequest.release();
+        }
+    }
+
+    /**
+     * The signature is verified on the crypto executor, the request thread is released meanwhile. A valid request is
+     * dispatched again and continues in {@link #forwardVerified}, with the security context of the original dispatch.
+     */
+    private void verifyAsync(CachedBodyHttpServletRequest wrappedRequest, HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) {
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+        AsyncContext asyncContext = httpServletRequest.startAsync(wrappedRequest, httpServletResponse);
+        asyncContext.addListener(new ReleaseBodyListener(wrappedRequest));
+        cryptoExecutor.execute(() -> {
+            try {
+                RestError restError = verify(wrappedRequest, httpServletRequest, httpServletResponse);
+                if (restError == null) {
+                    wrappedRequest.setAttribute(VERIFIED_SECURITY_CONTEXT_ATTRIBUTE, securityContext);
+                    asyncContext.dispatch();
+                } else {
+                    writeError(httpServletResponse, restError);
+                    asyncContext.complete();
+                }
+            } catch (Exception e) {
+                log.error("Error during asynchronous integrity check", e);
+                writeErrorQuietly(httpServletResponse, INTEGRITY_CHECK_ERROR);
+                asyncContext.complete();
+            }
+        });
+    }
+
+    private void forwardVerified(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, FilterChain filterChain) throws ServletException, IOException {
+        if (!(httpServletRequest.getAttribute(VERIFIED_SECURITY_CONTEXT_ATTRIBUTE) instanceof SecurityContext securityContext)) {
+            filterChain.doFilter(httpServletRequest, httpServletResponse);
+            return;
+        }
+        httpServletRequest.removeAttribute(VERIFIED_SECURITY_CONTEXT_ATTRIBUTE);
+        SecurityContext previous = SecurityContextHolder.getContext();
+        SecurityContextHolder.setContext(securityContext);
+        try {
+            filterChain.doFilter(httpServletRequest, httpServletResponse);
+        } finally {
+            SecurityContextHolder.setContext(previous);
+        }
+    }
+
+    /**
+     * @return null if the request may be forwarded, otherwise the error to answer with
+     */
+    private RestError verify(CachedBodyHttpServletRequest wrappedRequest, HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) {
+        Timing timing = integrityStageMetrics.start();
+        try {
+            Outcome outcome = checkIntegrity(wrappedRequest, timing);
+            if (outcome != Outcome.INVALID) {
+                log.info("Integrity check successful, forwarding request");
+                timing.record(outcome, httpServletResponse);
+                return null;
+            }
+            timing.record(Outcome.INVALID, httpServletResponse);
+            log.info("Integrity check failed, not processing request: " + httpServletRequest.getMethod() + " " + httpServletRequest.getRequestURI());
+            return INVALID_SIGNATURE;
+        } catch (ReplayedRequestException e) {
+            log.info("Replay of an already processed request, not processing request");
+            timing.record(Outcome.REPLAYED, httpServletResponse);
+            return REPLAYED_REQUEST;
         } catch (SignatureParseException e) {
             log.info("Unable to parse signature, not processing request");
-            restError = SIGNATURE_PARSE;
-        } finally {
-            if (restError != null) {
-                httpServletResponse.setStatus(restError.getHttpStatus().value());
-                httpServletResponse.setContentType(MediaType.APPLICATION_JSON_VALUE);
-                mapper.writeValue(httpServletResponse.getWriter(), restError);
+            timing.record(Outcome.PARSE_ERROR, httpServletResponse);
+            return SIGNATURE_PARSE;
+        }
+    }
+
+    private void writeError(HttpServletResponse httpServletResponse, RestError restError) throws IOException {
+        errorResponseCatalog.write(restError, httpServletResponse);
+    }
+
+    /**
+     * Used where the error cannot be thrown any further, e.g. on the crypto executor, the response may already be
+     * committed then.
+     */
+    private void writeErrorQuietly(HttpServletResponse httpServletResponse, RestError restError) {
+        try {
+            if (!httpServletResponse.isCommitted()) {
+                httpServletResponse.resetBuffer();
+                writeError(httpServletResponse, restError);
             }
+        } catch (IOException | IllegalStateException e) {
+            log.warn("Unable to write error response", e);
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    @RequiredArgsConstructor
+    private static class ReleaseBodyListener implements AsyncListener {
+        private final CachedBodyHttpServletRequest wrappedRequest;
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            wrappedRequest.release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // released in onComplete
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            // released in onComplete
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // nothing to do
         }
     }
 
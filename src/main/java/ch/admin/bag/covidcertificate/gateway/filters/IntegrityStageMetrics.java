@@ -0,0 +1,133 @@
+package ch.admin.bag.covidcertificate.gateway.filters;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import javax.servlet.http.HttpServletResponse;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer timers for the stages of the integrity check, tagged by stage and by the outcome of the whole check, and
+ * a counter of the checks by outcome, so the stages can be compared with all checked requests. Optionally the measured
+ * durations are also returned to the client in a <code>Server-Timing</code> header.
+ */
+public class IntegrityStageMetrics {
+
+    static final String METRIC_NAME = "cc.api.gateway.integrity.stage";
+    static final String CHECK_METRIC_NAME = "cc.api.gateway.integrity.check";
+    static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    public enum Stage {
+        /** digest of the request and lookup in the {@link VerifiedSignatureCache} */
+        REPLAY_CACHE,
+        DECODE,
+        CERTIFICATE,
+        CANONICALIZATION,
+        VERIFY;
+
+        private final String tag = name().toLowerCase(Locale.ROOT);
+    }
+
+    public enum Outcome {
+        OK,
+        /** verified within the replay window, the signature is not verified again */
+        CACHED,
+        /** rejected as replay */
+        REPLAYED,
+        INVALID,
+        PARSE_ERROR;
+
+        private final String tag = name().toLowerCase(Locale.ROOT);
+    }
+
+    private final Map<Stage, Map<Outcome, Timer>> timers = new EnumMap<>(Stage.class);
+    private final Map<Outcome, Counter> checks = new EnumMap<>(Outcome.class);
+    private final boolean serverTimingEnabled;
+
+    public IntegrityStageMetrics(MeterRegistry meterRegistry, boolean serverTimingEnabled) {
+        this.serverTimingEnabled = serverTimingEnabled;
+        for (Stage stage : Stage.values()) {
+            Map<Outcome, Timer> byOutcome = new EnumMap<>(Outcome.class);
+            for (Outcome outcome : Outcome.values()) {
+                byOutcome.put(outcome, Timer.builder(METRIC_NAME)
+                        .tag("stage", stage.tag)
+                        .tag("outcome", outcome.tag)
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofNanos(1_000))
+                        .maximumExpectedValue(Duration.ofSeconds(1))
+                        .register(meterRegistry));
+            }
+            timers.put(stage, byOutcome);
+        }
+        for (Outcome outcome : Outcome.values()) {
+            checks.put(outcome, Counter.builder(CHECK_METRIC_NAME).tag("outcome", outcome.tag).register(meterRegistry));
+        }
+    }
+
+    public Timing start() {
+        return new Timing();
+    }
+
+    /**
+     * Durations of the stages of a single integrity check. Not thread safe, one instance per request.
+     */
+    public class Timing {
+        private final long[] nanos = new long[Stage.values().length];
+        private Stage current;
+        private long currentStart;
+
+        private Timing() {
+        }
+
+        public void begin(Stage stage) {
+            end();
+            current = stage;
+            currentStart = System.nanoTime();
+        }
+
+        public void end() {
+            if (current != null) {
+                nanos[current.ordinal()] += System.nanoTime() - currentStart;
+                current = null;
+            }
+        }
+
+        /**
+         * Counts the check and records every stage that was entered with the given outcome, and adds the
+         * <code>Server-Timing</code> header if enabled. Must be called once per check, before the response is
+         * committed for the header to be sent.
+         */
+        public void record(Outcome outcome, HttpServletResponse response) {
+            end();
+            checks.get(outcome).increment();
+            for (Stage stage : Stage.values()) {
+                long duration = nanos[stage.ordinal()];
+                if (duration > 0) {
+                    timers.get(stage).get(outcome).record(duration, TimeUnit.NANOSECONDS);
+                }
+            }
+            if (serverTimingEnabled) {
+                addServerTiming(response);
+            }
+        }
+
+        private void addServerTiming(HttpServletResponse response) {
+            StringJoiner serverTiming = new StringJoiner(", ");
+            for (Stage stage : Stage.values()) {
+                long duration = nanos[stage.ordinal()];
+                if (duration > 0) {
+                    serverTiming.add(String.format(Locale.ROOT, "integrity-%s;dur=%.3f", stage.tag, duration / 1_000_000d));
+                }
+            }
+            if (serverTiming.length() > 0) {
+                response.addHeader(SERVER_TIMING_HEADER, serverTiming.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package ch.admin.bag.covidcertificate.gateway.filters;
+
+import java.io.IOException;
+
+public class PayloadTooLargeException extends IOException {
+
+    public PayloadTooLargeException(long maxBodySize) {
+        super("Request body exceeds the maximum size of " + maxBodySize + " bytes");
+    }
+}
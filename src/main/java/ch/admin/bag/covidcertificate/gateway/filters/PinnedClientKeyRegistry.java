@@ -0,0 +1,132 @@
+package ch.admin.bag.covidcertificate.gateway.filters;
+
+import ch.admin.bag.covidcertificate.gateway.service.util.ReloadableFile;
+import ch.admin.bag.covidcertificate.gateway.web.config.CNExtractor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.StringUtils;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * Public keys of known clients, keyed by the common name of their certificate and loaded from a PEM bundle.
+ * The bundle is parsed and validated once and reloaded when the file changes, so the integrity check only needs
+ * a map lookup instead of parsing the <code>X-Client-Cert</code> header.
+ */
+@Slf4j
+public class PinnedClientKeyRegistry {
+
+    private final boolean required;
+    private final Clock clock;
+    private final ReloadableFile<PinnedKey> bundle;
+
+    public PinnedClientKeyRegistry(Path location, boolean required) {
+        this(location, required, Clock.systemUTC());
+    }
+
+    PinnedClientKeyRegistry(Path location, boolean required, Clock clock) {
+        this.required = required;
+        this.clock = clock;
+        this.bundle = new ReloadableFile<>(location, "pinned client keys", this::parse);
+    }
+
+    public boolean isRequired() {
+        return required;
+    }
+
+    /**
+     * @param clientDn the <code>X-Client-DN</code> header
+     * @return the pinned key of the client or null if the client is unknown or its certificate expired
+     */
+    public PinnedKey find(String clientDn) {
+        if (!StringUtils.hasText(clientDn)) {
+            return null;
+        }
+        PinnedKey pinnedKey = bundle.entries().get(CNExtractor.extract(clientDn));
+        if (pinnedKey == null || pinnedKey.notAfter().isBefore(clock.instant())) {
+            return null;
+        }
+        return pinnedKey;
+    }
+
+    @Scheduled(fixedDelayString = "${cc-api-gateway-service.integrity.pinned-keys.reload-interval:60000}")
+    public void reloadIfModified() {
+        bundle.reloadIfModified();
+    }
+
+    /**
+     * Parses the bundle and replaces all keys at once. If the bundle cannot be read, the loaded keys are kept.
+     */
+    public void reload() {
+        bundle.reload();
+    }
+
+    private Map<String, PinnedKey> parse(Path location) throws IOException, CertificateException {
+        Map<String, PinnedKey> loaded = new HashMap<>();
+        try (InputStream inputStream = Files.newInputStream(location)) {
+            for (Certificate certificate : CertificateFactory.getInstance("X.509").generateCertificates(inputStream)) {
+                pin((X509Certificate) certificate, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    private void pin(X509Certificate certificate, Map<String, PinnedKey> loaded) throws CertificateEncodingException {
+        String commonName = commonName(certificate);
+        Instant now = clock.instant();
+        if (commonName == null) {
+            log.warn("Ignoring pinned certificate without common name: {}", certificate.getSubjectX500Principal());
+        } else if (now.isBefore(certificate.getNotBefore().toInstant()) || now.isAfter(certificate.getNotAfter().toInstant())) {
+            log.warn("Ignoring pinned certificate of {} outside of its validity period", commonName);
+        } else {
+            PinnedKey previous = loaded.put(commonName, new PinnedKey(
+                    certificate.getPublicKey(), fingerprint(certificate), certificate.getNotAfter().toInstant()));
+            if (previous != null) {
+                log.warn("Multiple pinned certificates for {}, using the last one", commonName);
+            }
+        }
+    }
+
+    private static String commonName(X509Certificate certificate) {
+        try {
+            for (Rdn rdn : new LdapName(certificate.getSubjectX500Principal().getName()).getRdns()) {
+                if ("CN".equalsIgnoreCase(rdn.getType())) {
+                    return rdn.getValue().toString();
+                }
+            }
+        } catch (InvalidNameException e) {
+            log.warn("Unable to parse subject {}", certificate.getSubjectX500Principal(), e);
+        }
+        return null;
+    }
+
+    private static String fingerprint(X509Certificate certificate) throws CertificateEncodingException {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public record PinnedKey(PublicKey publicKey, String fingerprint, Instant notAfter) {
+    }
+}
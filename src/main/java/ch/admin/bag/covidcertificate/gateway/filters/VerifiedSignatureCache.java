@@ -0,0 +1,142 @@
+package ch.admin.bag.covidcertificate.gateway.filters;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers successfully verified requests for a time window, keyed by the digest of the client certificate header,
+ * the signature header and the raw body. A request seen again within the window is either accepted without
+ * verifying its signature again, accepted and flagged as replay, or rejected, depending on the {@link ReplayPolicy}.
+ * While the cache is full, expired entries are purged at most once per tenth of the window and not before the
+ * earliest entry expires, so a full cache does not scan all entries on every request.
+ */
+@Slf4j
+public class VerifiedSignatureCache {
+
+    public enum ReplayPolicy {
+        /** identical requests are accepted without verifying the signature again */
+        ALLOW,
+        /** like ALLOW, but every replay is counted and logged at debug level */
+        FLAG,
+        /** identical requests within the window are rejected */
+        REJECT
+    }
+
+    private static final String METRIC_NAME = "cc.api.gateway.integrity.signature.cache";
+
+    private final Map<String, Long> verifiedUntil = new ConcurrentHashMap<>();
+    private final AtomicLong nextPurgeAt = new AtomicLong();
+    private final long windowMillis;
+    private final int maxSize;
+    private final ReplayPolicy replayPolicy;
+    private final Clock clock;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter verificationsSaved;
+    private final Counter replaysRejected;
+    private final Counter replaysFlagged;
+
+    public VerifiedSignatureCache(long windowMillis, int maxSize, ReplayPolicy replayPolicy, MeterRegistry meterRegistry) {
+        this(windowMillis, maxSize, replayPolicy, meterRegistry, Clock.systemUTC());
+    }
+
+    VerifiedSignatureCache(long windowMillis, int maxSize, ReplayPolicy replayPolicy, MeterRegistry meterRegistry, Clock clock) {
+        this.windowMillis = windowMillis;
+        this.maxSize = maxSize;
+        this.replayPolicy = replayPolicy;
+        this.clock = clock;
+        this.hits = Counter.builder(METRIC_NAME).tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder(METRIC_NAME).tag("result", "miss").register(meterRegistry);
+        this.verificationsSaved = Counter.builder("cc.api.gateway.integrity.verification.saved").register(meterRegistry);
+        this.replaysRejected = Counter.builder("cc.api.gateway.integrity.replay.rejected").register(meterRegistry);
+        this.replaysFlagged = Counter.builder("cc.api.gateway.integrity.replay.flagged").register(meterRegistry);
+        meterRegistry.gaugeMapSize(METRIC_NAME + ".size", Collections.emptyList(), verifiedUntil);
+    }
+
+    public String key(String certificateHeader, String signatureHeader, byte[] body, int bodyLength) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(certificateHeader.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(signatureHeader.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(body, 0, bodyLength);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return true if the request was verified within the window and may skip the signature verification
+     * @throws ReplayedRequestException if the request was verified within the window and replays are rejected
+     */
+    public boolean isVerified(String key) throws ReplayedRequestException {
+        Long until = verifiedUntil.get(key);
+        if (until == null || until < clock.millis()) {
+            misses.increment();
+            return false;
+        }
+        hits.increment();
+        switch (replayPolicy) {
+            case REJECT -> {
+                replaysRejected.increment();
+                throw new ReplayedRequestException();
+            }
+            case FLAG -> {
+                // legitimate client retries are replays as well, so they are counted and not logged as warning
+                replaysFlagged.increment();
+                log.debug("Replay of an already verified request within {} ms", windowMillis);
+            }
+            default -> log.debug("Request already verified, skipping signature verification");
+        }
+        verificationsSaved.increment();
+        return true;
+    }
+
+    public void markVerified(String key) {
+        long now = clock.millis();
+        if (verifiedUntil.size() >= maxSize) {
+            purgeExpired(now);
+            if (verifiedUntil.size() >= maxSize) {
+                log.debug("Verified signature cache is full, not caching request");
+                return;
+            }
+        }
+        verifiedUntil.put(key, now + windowMillis);
+    }
+
+    /**
+     * Removes the expired entries if no other thread does and the last purge is long enough ago.
+     */
+    private void purgeExpired(long now) {
+        long purgeAt = nextPurgeAt.get();
+        if (now < purgeAt || !nextPurgeAt.compareAndSet(purgeAt, Long.MAX_VALUE)) {
+            return;
+        }
+        long earliest = Long.MAX_VALUE;
+        for (var iterator = verifiedUntil.values().iterator(); iterator.hasNext(); ) {
+            long until = iterator.next();
+            if (until < now) {
+                iterator.remove();
+            } else {
+                earliest = Math.min(earliest, until);
+            }
+        }
+        nextPurgeAt.set(Math.max(earliest, now + Math.max(1, windowMillis / 10)));
+    }
+
+    public static class ReplayedRequestException extends Exception {
+    }
+}
@@ -1,6 +1,9 @@
 package ch.admin.bag.covidcertificate.gateway.service;
 
+import ch.admin.bag.covidcertificate.gateway.service.SecKpiEventSink.SecKpiEvent;
 import ch.admin.bag.covidcertificate.gateway.service.model.UserAuthorizationData;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.Jws;
@@ -17,25 +20,20 @@ import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
 import javax.annotation.PostConstruct;
+import java.io.IOException;
 import java.security.Key;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 
 import static ch.admin.bag.covidcertificate.gateway.Constants.IDP_SOURCE_CLAIM_KEY;
-import static ch.admin.bag.covidcertificate.gateway.Constants.KPI_CREATE_CERTIFICATE_TYPE;
-import static ch.admin.bag.covidcertificate.gateway.Constants.KPI_SYSTEM_API;
-import static ch.admin.bag.covidcertificate.gateway.Constants.KPI_TIMESTAMP_KEY;
-import static ch.admin.bag.covidcertificate.gateway.Constants.LOG_FORMAT;
-import static ch.admin.bag.covidcertificate.gateway.Constants.SEC_KPI_EXT_ID;
-import static ch.admin.bag.covidcertificate.gateway.Constants.SEC_KPI_IDP_SOURCE;
-import static ch.admin.bag.covidcertificate.gateway.Constants.SEC_KPI_IP_ADDRESS;
-import static ch.admin.bag.covidcertificate.gateway.Constants.SEC_KPI_OTP_JWT_ID;
-import static ch.admin.bag.covidcertificate.gateway.Constants.SEC_KPI_OTP_TYPE;
 import static ch.admin.bag.covidcertificate.gateway.error.ErrorList.INVALID_BEARER;
 import static ch.admin.bag.covidcertificate.gateway.error.ErrorList.INVALID_OTP_LENGTH;
 import static ch.admin.bag.covidcertificate.gateway.error.ErrorList.MISSING_BEARER;
@@ -53,7 +51,11 @@ public class BearerTokenValidationService {
     private static final String TYP_CLAIM_KEY = "typ";
     private static final String AUTH_MACHINE_JWT = "authmachine+jwt";
     private static final String OTP_CLAIM_KEY = "otp";
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
     private final OtpRevocationService otpRevocationService;
+    private final VerifiedTokenCache verifiedTokenCache;
+    private final JwtVerifierRegistry jwtVerifierRegistry;
+    private final SecKpiEventSink secKpiEventSink;
     @Value("${cc-api-gateway-service.jwt.publicKey}")
     private String publicKey;
     private JwtParser jwtParser;
@@ -88,8 +90,19 @@ public class BearerTokenValidationService {
             throw new InvalidBearerTokenException(INVALID_OTP_LENGTH);
         }
 
+        VerifiedTokenCache.VerifiedToken verifiedToken = verifiedTokenCache.get(token);
+        // a token of a key removed from the JWKS since its validation is validated again and rejected
+        if (verifiedToken != null && parserFor(verifiedToken.kid()) != null) {
+            // revocations are not cached, an otp revoked since its validation is rejected
+            checkNotRevoked(verifiedToken.jti());
+            UserAuthorizationData authorizationData = verifiedToken.authorizationData();
+            logSecKPI(ipAddress, verifiedToken.otpType(), authorizationData.getUserId(), authorizationData.getIdpSource(), verifiedToken.jti());
+            return authorizationData;
+        }
+
         try {
-            Jws<Claims> claimsJws = jwtParser.parseClaimsJws(token);
+            JwtParser parser = preValidate(token);
+            Jws<Claims> claimsJws = parser.parseClaimsJws(token);
 
             String userExtId = claimsJws.getBody().get(USER_EXT_ID_CLAIM_KEY, String.class);
             String idpSource = claimsJws.getBody().get(IDP_SOURCE_CLAIM_KEY, String.class);
@@ -104,33 +117,37 @@ public class BearerTokenValidationService {
                     kv(USER_ROLES_CLAIM_KEY, roles));
 
             String jti = claimsJws.getBody().getId();
-            if (isRevoked(jti)) {
-                log.warn("Call with revoked otp with {}", kv("jti", jti));
-                throw new InvalidBearerTokenException(INVALID_BEARER);
-            }
+            checkNotRevoked(jti);
 
             validateScope(scope);
             validateClaim(userExtId, USER_EXT_ID_CLAIM_KEY);
             validateClaim(idpSource, IDP_SOURCE_CLAIM_KEY);
             validateClaim(typ, AUTH_MACHINE_JWT);
 
-            logSecKPI(ipAddress, claimsJws, userExtId, idpSource, jti);
+            String otpType = claimsJws.getBody().get(OTP_CLAIM_KEY, String.class);
+            logSecKPI(ipAddress, otpType, userExtId, idpSource, jti);
 
-            return new UserAuthorizationData(userExtId, idpSource, roles);
+            var authorizationData = new UserAuthorizationData(userExtId, idpSource, roles);
+            Date expiration = claimsJws.getBody().getExpiration();
+            verifiedTokenCache.put(token, authorizationData, jti, otpType, claimsJws.getHeader().getKeyId(),
+                    expiration != null ? expiration.toInstant() : null);
+            return authorizationData;
 
+        } catch (InvalidBearerTokenException e) {
+            throw e;
         } catch (ExpiredJwtException e) {
-            log.warn("Token expired", e);
+            log.warn("Token expired: {}", e.getMessage());
             throw new InvalidBearerTokenException(INVALID_BEARER);
         } catch (SignatureException e) {
             if (e.getMessage().toLowerCase().contains("signature length not correct")) {
-                log.warn("Invalid signature length", e);
+                log.warn("Invalid signature length: {}", e.getMessage());
                 throw new InvalidBearerTokenException(INVALID_OTP_LENGTH);
             } else {
-                log.warn("Signature invalid", e);
+                log.warn("Signature invalid: {}", e.getMessage());
                 throw new InvalidBearerTokenException(INVALID_BEARER);
             }
         } catch (UnsupportedJwtException e) {
-            log.warn("Token is not signed", e);
+            log.warn("Token is not signed: {}", e.getMessage());
             throw new InvalidBearerTokenException(INVALID_BEARER);
         } catch (Exception e) {
             log.warn("Exception during validation of token", e);
@@ -138,6 +155,103 @@ public class BearerTokenValidationService {
         }
     }
 
+    /**
+     * Decodes the token without verifying it and rejects it if the full validation would reject it anyway, so
+     * malformed, expired, revoked or otherwise invalid tokens do not cost an RSA verification. Nothing read here is
+     * trusted, the claims are checked again once the signature is verified.
+     * <p>
+     * With a JWKS, an OTP is verified with the key of its <code>kid</code> only, an OTP without <code>kid</code> with
+     * the configured public key.
+     * <p>
+     * An OTP is also rejected if its revocation may be dropped before it expires, see
+     * {@link OtpRevocationService#keepsRevocationsFor(Instant, Instant)}.
+     *
+     * @return the parser verifying the token
+     */
+    private JwtParser preValidate(String token) throws InvalidBearerTokenException {
+        String[] parts = token.split("\\.", -1);
+        if (parts.length != 3) {
+            throw rejectedUnverified("malformed", null);
+        }
+        JsonNode header = decode(parts[0]);
+        JsonNode claims = decode(parts[1]);
+        if (header == null || claims == null) {
+            throw rejectedUnverified("malformed", null);
+        }
+        String jti = claims.path(Claims.ID).textValue();
+        // the signing key is an RSA key, tokens signed otherwise cannot be verified with it
+        String algorithm = header.path("alg").asText();
+        if (parts[2].isEmpty() || !(algorithm.startsWith("RS") || algorithm.startsWith("PS"))) {
+            throw rejectedUnverified("not signed with RSA", jti);
+        }
+        JwtParser parser = parserFor(header.path("kid").textValue());
+        if (parser == null) {
+            throw rejectedUnverified("unknown kid", jti);
+        }
+        JsonNode expiration = claims.get(Claims.EXPIRATION);
+        if (expiration != null && (!expiration.isNumber() || System.currentTimeMillis() > expiration.asLong() * 1000)) {
+            throw rejectedUnverified("expired", jti);
+        }
+        if (!otpRevocationService.keepsRevocationsFor(instant(claims.get(Claims.ISSUED_AT)), instant(expiration))) {
+            throw rejectedUnverified("validity exceeds the otp lifetime", jti);
+        }
+        if (!COVID_CERT_CREATION.equals(claims.path(SCOPE_CLAIM_KEY).textValue())) {
+            throw rejectedUnverified("invalid scope", jti);
+        }
+        if (!StringUtils.hasText(claims.path(USER_EXT_ID_CLAIM_KEY).textValue())
+                || !StringUtils.hasText(claims.path(IDP_SOURCE_CLAIM_KEY).textValue())
+                || !StringUtils.hasText(claims.path(TYP_CLAIM_KEY).textValue())) {
+            throw rejectedUnverified("missing claim", jti);
+        }
+        checkNotRevoked(jti);
+        return parser;
+    }
+
+    /**
+     * @return null if the JWKS does not contain the key
+     */
+    private JwtParser parserFor(String kid) {
+        return kid != null && !jwtVerifierRegistry.isEmpty() ? jwtVerifierRegistry.find(kid) : jwtParser;
+    }
+
+    private static Instant instant(JsonNode epochSeconds) {
+        return epochSeconds != null && epochSeconds.isNumber() ? Instant.ofEpochSecond(epochSeconds.asLong()) : null;
+    }
+
+    /**
+     * @return null if the part is no base64url encoded JSON object
+     */
+    private static JsonNode decode(String part) {
+        try {
+            JsonNode node = OBJECT_MAPPER.readTree(Base64.getUrlDecoder().decode(part));
+            return node.isObject() ? node : null;
+        } catch (IllegalArgumentException | IOException e) {
+            return null;
+        }
+    }
+
+    private static InvalidBearerTokenException rejectedUnverified(String reason, String jti) {
+        log.warn("Token rejected before verification: {} {}", kv("reason", reason), kv("jti", jti));
+        return new InvalidBearerTokenException(INVALID_BEARER);
+    }
+
+    /**
+     * An otp whose revocation cannot be checked, e.g. while the revocations cannot be loaded, is rejected.
+     */
+    private void checkNotRevoked(String jti) throws InvalidBearerTokenException {
+        boolean revoked;
+        try {
+            revoked = otpRevocationService.isRevoked(jti);
+        } catch (RuntimeException e) {
+            log.warn("Unable to check the revocation of otp with {}", kv("jti", jti), e);
+            throw new InvalidBearerTokenException(INVALID_BEARER);
+        }
+        if (revoked) {
+            log.warn("Call with revoked otp with {}", kv("jti", jti));
+            throw new InvalidBearerTokenException(INVALID_BEARER);
+        }
+    }
+
     private void validateScope(String scope) throws InvalidBearerTokenException {
         if (!StringUtils.hasText(scope) || !COVID_CERT_CREATION.equals(scope)) {
             log.warn("scope not present or invalid");
@@ -152,20 +266,7 @@ public class BearerTokenValidationService {
         }
     }
 
-    private boolean isRevoked(String jti) {
-        return otpRevocationService.getOtpRevocations()
-                .stream()
-                .anyMatch(otpRevocation -> otpRevocation.getJti().equals(jti));
-    }
-
-    private void logSecKPI(String ipAddress, Jws<Claims> claimsJws, String userExtId, String idpSource, String jti) {
-        log.info("sec-kpi: {} {} {} {} {} {} {}",
-                kv(KPI_TIMESTAMP_KEY, LocalDateTime.now().format(LOG_FORMAT)),
-                kv(KPI_CREATE_CERTIFICATE_TYPE, KPI_SYSTEM_API),
-                kv(SEC_KPI_OTP_JWT_ID, jti),
-                kv(SEC_KPI_OTP_TYPE, claimsJws.getBody().get(OTP_CLAIM_KEY, String.class)),
-                kv(SEC_KPI_IP_ADDRESS, ipAddress),
-                kv(SEC_KPI_EXT_ID, userExtId),
-                kv(SEC_KPI_IDP_SOURCE, idpSource));
+    private void logSecKPI(String ipAddress, String otpType, String userExtId, String idpSource, String jti) {
+        secKpiEventSink.publish(new SecKpiEvent(LocalDateTime.now(), jti, otpType, ipAddress, userExtId, idpSource));
     }
 }
@@ -0,0 +1,95 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool for CPU bound signature checks, so they do not compete with request threads blocked on I/O.
+ * If the queue is full or the pool is shut down, the task runs on the calling thread, so {@link #call} never waits for
+ * a task that is not run. A disabled executor runs every task on the caller.
+ */
+@Slf4j
+public class CryptoExecutor {
+
+    static final String NAME = "crypto";
+
+    private final ThreadPoolExecutor executor;
+
+    private CryptoExecutor() {
+        this.executor = null;
+    }
+
+    public CryptoExecutor(int threads, int queueCapacity, MeterRegistry meterRegistry) {
+        Counter callerRuns = Counter.builder("cc.api.gateway.crypto.executor.caller.runs").register(meterRegistry);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, NAME + "-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> {
+                    callerRuns.increment();
+                    runnable.run();
+                });
+        // registers executor.queued, executor.queue.remaining, executor.active, ... tagged with name=crypto
+        ExecutorServiceMetrics.monitor(meterRegistry, executor, NAME, Tags.empty());
+        log.info("Crypto executor started with {} threads and a queue of {}", threads, queueCapacity);
+    }
+
+    public static CryptoExecutor disabled() {
+        return new CryptoExecutor();
+    }
+
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+    public void execute(Runnable task) {
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Runs the task on the pool and waits for its result. Exceptions of the task are rethrown unchanged.
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        if (executor == null) {
+            return task.call();
+        }
+        try {
+            return executor.submit(task).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
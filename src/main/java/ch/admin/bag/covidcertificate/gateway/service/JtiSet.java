@@ -0,0 +1,171 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Set of OTP jti values. A jti in the canonical lower case UUID form, as issued by the management service, is packed
+ * into two longs of an open-addressing table, 16 bytes per slot instead of about 120 bytes for a string in a hash set.
+ * Any other jti is kept as string, so a lookup matches exactly the jti that was added.
+ * <p>
+ * Lookups run concurrently to the writer, callers have to serialize {@link #add(String)}. Entries cannot be removed,
+ * the set is rebuilt instead.
+ */
+public class JtiSet {
+
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int MIN_CAPACITY = 16;
+    private static final double MAX_LOAD = 0.7;
+    private static final byte[] HEX_DIGITS = new byte[128];
+
+    static {
+        Arrays.fill(HEX_DIGITS, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            HEX_DIGITS["0123456789abcdef".charAt(i)] = (byte) i;
+        }
+    }
+
+    // pairs of the most and the least significant bits, a least significant half of 0 marks an empty slot
+    private volatile long[] table;
+    private final Set<String> others = ConcurrentHashMap.newKeySet();
+    // written by the writer only
+    private int packed;
+
+    public JtiSet(int expectedSize) {
+        this.table = new long[2 * capacityFor(expectedSize)];
+    }
+
+    public boolean contains(String jti) {
+        if (jti == null) {
+            return false;
+        }
+        PackedUuid uuid = pack(jti);
+        if (uuid == null) {
+            return others.contains(jti);
+        }
+        long msb = uuid.msb();
+        long lsb = uuid.lsb();
+        long[] slots = table;
+        int mask = (slots.length >> 1) - 1;
+        for (int i = hash(msb, lsb) & mask; ; i = (i + 1) & mask) {
+            // the least significant half is written last, once it is seen the most significant half is visible too
+            long slotLsb = (long) SLOTS.getAcquire(slots, 2 * i + 1);
+            if (slotLsb == 0) {
+                return false;
+            }
+            if (slotLsb == lsb && slots[2 * i] == msb) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return false if the jti was already in the set
+     */
+    public boolean add(String jti) {
+        PackedUuid uuid = pack(jti);
+        if (uuid == null) {
+            return others.add(jti);
+        }
+        if (!insert(table, uuid.msb(), uuid.lsb())) {
+            return false;
+        }
+        packed++;
+        if (packed > (table.length >> 1) * MAX_LOAD) {
+            table = rehash(table);
+        }
+        return true;
+    }
+
+    public int size() {
+        return packed + others.size();
+    }
+
+    private static boolean insert(long[] slots, long msb, long lsb) {
+        int mask = (slots.length >> 1) - 1;
+        for (int i = hash(msb, lsb) & mask; ; i = (i + 1) & mask) {
+            long slotLsb = slots[2 * i + 1];
+            if (slotLsb == 0) {
+                slots[2 * i] = msb;
+                SLOTS.setRelease(slots, 2 * i + 1, lsb);
+                return true;
+            }
+            if (slotLsb == lsb && slots[2 * i] == msb) {
+                return false;
+            }
+        }
+    }
+
+    private static long[] rehash(long[] slots) {
+        // lookups keep using the old table until the new one is complete
+        long[] rehashed = new long[slots.length * 2];
+        for (int i = 0; i < slots.length; i += 2) {
+            if (slots[i + 1] != 0) {
+                insert(rehashed, slots[i], slots[i + 1]);
+            }
+        }
+        return rehashed;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(long msb, long lsb) {
+        // time-ordered UUIDs are not random in the high bits
+        long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Packs the canonical lower case form only, {@link java.util.UUID#fromString(String)} also accepts other forms of
+     * the same UUID. A UUID with a least significant half of 0 cannot be told apart from an empty slot.
+     *
+     * @return null if the jti is not packed
+     */
+    private static PackedUuid pack(String jti) {
+        if (jti.length() != 36 || jti.charAt(8) != '-' || jti.charAt(13) != '-' || jti.charAt(18) != '-' || jti.charAt(23) != '-') {
+            return null;
+        }
+        long group0 = parseGroup(jti, 0, 8);
+        long group1 = parseGroup(jti, 9, 13);
+        long group2 = parseGroup(jti, 14, 18);
+        long group3 = parseGroup(jti, 19, 23);
+        long group4 = parseGroup(jti, 24, 36);
+        if ((group0 | group1 | group2 | group3 | group4) < 0) {
+            return null;
+        }
+        long lsb = group3 << 48 | group4;
+        return lsb != 0 ? new PackedUuid(group0 << 32 | group1 << 16 | group2, lsb) : null;
+    }
+
+    /**
+     * @return -1 if the group contains anything else than lower case hex digits
+     */
+    private static long parseGroup(String jti, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = jti.charAt(i);
+            int digit = c < 128 ? HEX_DIGITS[c] : -1;
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    // does not escape, it is not allocated once the lookup is compiled
+    private record PackedUuid(long msb, long lsb) {
+    }
+}
@@ -0,0 +1,95 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import ch.admin.bag.covidcertificate.gateway.service.util.ReloadableFile;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parsers verifying OTPs, keyed by the <code>kid</code> of the signing key and loaded from a local JWKS file. Every
+ * parser is built once, an OTP is verified with the parser of its <code>kid</code> only. The file is reloaded when it
+ * changes, so signing keys can be rotated without restart by publishing the new key before it is used.
+ */
+@Slf4j
+public class JwtVerifierRegistry {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final ReloadableFile<JwtParser> jwks;
+
+    public JwtVerifierRegistry(Path location) {
+        this.jwks = new ReloadableFile<>(location, "JWT verification keys", JwtVerifierRegistry::parse);
+    }
+
+    public boolean isEmpty() {
+        return jwks.entries().isEmpty();
+    }
+
+    /**
+     * @return the parser verifying OTPs signed with the key, null if the key is unknown
+     */
+    public JwtParser find(String kid) {
+        return kid != null ? jwks.entries().get(kid) : null;
+    }
+
+    @Scheduled(fixedDelayString = "${cc-api-gateway-service.jwt.jwks.reload-interval:60000}")
+    public void reloadIfModified() {
+        jwks.reloadIfModified();
+    }
+
+    /**
+     * Parses the JWKS and replaces all parsers at once. If the JWKS cannot be read, the loaded parsers are kept.
+     */
+    public void reload() {
+        jwks.reload();
+    }
+
+    private static Map<String, JwtParser> parse(Path location) throws IOException, GeneralSecurityException {
+        JsonNode keys = OBJECT_MAPPER.readTree(location.toFile()).path("keys");
+        if (!keys.isArray()) {
+            throw new IOException("No keys array");
+        }
+        Map<String, JwtParser> loaded = new HashMap<>();
+        for (JsonNode key : keys) {
+            add(key, loaded);
+        }
+        return loaded;
+    }
+
+    private static void add(JsonNode key, Map<String, JwtParser> loaded) throws GeneralSecurityException {
+        String kid = key.path("kid").textValue();
+        if (kid == null) {
+            log.warn("Ignoring JWK without kid");
+        } else if (!"RSA".equals(key.path("kty").textValue()) || "enc".equals(key.path("use").textValue())) {
+            log.warn("Ignoring JWK {}, only RSA signing keys are supported", kid);
+        } else {
+            PublicKey publicKey = KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(
+                    unsignedInteger(key, "n"), unsignedInteger(key, "e")));
+            if (loaded.put(kid, Jwts.parserBuilder().setSigningKey(publicKey).build()) != null) {
+                log.warn("Multiple JWKs with kid {}, using the last one", kid);
+            }
+        }
+    }
+
+    private static BigInteger unsignedInteger(JsonNode key, String parameter) {
+        String value = key.path(parameter).textValue();
+        if (value == null) {
+            throw new IllegalArgumentException("JWK " + key.path("kid").textValue() + " without " + parameter);
+        }
+        return new BigInteger(1, Base64.getUrlDecoder().decode(value));
+    }
+}
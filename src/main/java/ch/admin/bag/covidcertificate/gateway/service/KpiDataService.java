@@ -1,40 +1,41 @@
 package ch.admin.bag.covidcertificate.gateway.service;
 
 import ch.admin.bag.covidcertificate.gateway.domain.KpiData;
-import ch.admin.bag.covidcertificate.gateway.domain.KpiDataRepository;
+import ch.admin.bag.covidcertificate.gateway.domain.KpiDataBatchRepository;
+import ch.admin.bag.covidcertificate.gateway.domain.KpiRollupCount;
+import ch.admin.bag.covidcertificate.gateway.domain.KpiRollupRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
+import java.util.List;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class KpiDataService {
 
-    private final KpiDataRepository logRepository;
+    private final KpiDataBatchRepository kpiDataBatchRepository;
+    private final KpiRollupRepository kpiRollupRepository;
 
-    public void saveKpiData(LocalDateTime timestamp, String type, String value) {
-        saveKpiData(timestamp, type, value, null, null, null, false, null);
+    /**
+     * Writes the events taken from the queue of the {@link KpiDataWriter}, which all KPI events go through.
+     */
+    public void saveKpiData(List<KpiData> kpiData) {
+        kpiDataBatchRepository.insertAll(kpiData);
     }
 
-    public void saveKpiData(LocalDateTime timestamp, String type, String value, String uvci, String details, String country) {
-        saveKpiData(timestamp, type, value, uvci, details, country, false, null);
+    /**
+     * Writes events that may already have been written before, e.g. from the {@link KpiSpool}.
+     */
+    public void replayKpiData(List<KpiData> kpiData) {
+        kpiDataBatchRepository.insertMissing(kpiData);
     }
 
-    private void saveKpiData(LocalDateTime timestamp, String type, String value, String uvci, String details, String country,
-                             boolean fraud, String inAppDeliveryCode) {
-        KpiData kpiData = KpiData.builder()
-                .timestamp(timestamp)
-                .type(type)
-                .value(value)
-                .uvci(uvci)
-                .details(details)
-                .country(country)
-                .fraud(fraud)
-                .inAppDeliveryCode(inAppDeliveryCode)
-                .build();
-        logRepository.save(kpiData);
+    /**
+     * Writes the minute counts of the {@link KpiRollup}.
+     */
+    public void saveKpiRollup(List<KpiRollupCount> counts) {
+        kpiRollupRepository.insertAll(counts);
     }
 }
@@ -0,0 +1,250 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import ch.admin.bag.covidcertificate.gateway.domain.KpiData;
+import ch.admin.bag.covidcertificate.gateway.domain.KpiRollupCount;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue for KPI events. Events are collected in a bounded queue and written in batches by a background
+ * thread, either when a batch is full or when the flush interval elapsed since the first event of the batch.
+ * <p>
+ * With an enabled {@link KpiSpool} batches that cannot be written are appended to the spool instead. The database is
+ * then not tried again before the replay retry interval elapsed, meanwhile all batches go to the spool. The spool is
+ * replayed into the database batch by batch between the regular flushes.
+ * <p>
+ * With an enabled {@link KpiRollup} events are counted per minute and the counts of completed minutes are written,
+ * the raw events are then optional.
+ */
+@Slf4j
+public class KpiDataWriter {
+
+    public enum BackpressurePolicy {
+        /** the new event is dropped if the queue is full */
+        DROP_NEWEST,
+        /** the oldest queued event is dropped to make room for the new one */
+        DROP_OLDEST,
+        /** the new event is written synchronously by the calling thread */
+        CALLER_RUNS,
+        /** the new event is appended to the {@link KpiSpool} by the calling thread */
+        SPOOL
+    }
+
+    private static final String METRIC_PREFIX = "cc.api.gateway.kpi.writer";
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final KpiDataService kpiDataService;
+    private final BlockingQueue<KpiData> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final BackpressurePolicy backpressurePolicy;
+    private final KpiSpool spool;
+    private final long replayRetryNanos;
+    private final KpiRollup rollup;
+    private final Counter dropped;
+    private final Counter flushed;
+    private final Counter failed;
+    private final Counter callerRuns;
+    private final Counter spooled;
+    private final Counter replayed;
+    private final Counter rollupFlushed;
+    private final Timer flushTimer;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    // also written and read by the request threads, which flush themselves with CALLER_RUNS
+    private volatile long databaseRetryAt;
+
+    public KpiDataWriter(KpiDataService kpiDataService, int queueCapacity, int batchSize, long flushIntervalMillis,
+                         BackpressurePolicy backpressurePolicy, KpiSpool spool, long replayRetryMillis,
+                         KpiRollup rollup, MeterRegistry meterRegistry) {
+        if (backpressurePolicy == BackpressurePolicy.SPOOL && !spool.isEnabled()) {
+            throw new IllegalArgumentException("Backpressure policy SPOOL requires an enabled kpi spool");
+        }
+        this.kpiDataService = kpiDataService;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.backpressurePolicy = backpressurePolicy;
+        this.spool = spool;
+        this.replayRetryNanos = TimeUnit.MILLISECONDS.toNanos(replayRetryMillis);
+        this.rollup = rollup;
+        this.databaseRetryAt = System.nanoTime();
+        this.dropped = Counter.builder(METRIC_PREFIX + ".dropped").register(meterRegistry);
+        this.flushed = Counter.builder(METRIC_PREFIX + ".flushed").register(meterRegistry);
+        this.failed = Counter.builder(METRIC_PREFIX + ".failed").register(meterRegistry);
+        this.callerRuns = Counter.builder(METRIC_PREFIX + ".caller.runs").register(meterRegistry);
+        this.spooled = Counter.builder(METRIC_PREFIX + ".spooled").register(meterRegistry);
+        this.replayed = Counter.builder(METRIC_PREFIX + ".replayed").register(meterRegistry);
+        this.rollupFlushed = Counter.builder(METRIC_PREFIX + ".rollup.flushed").register(meterRegistry);
+        this.flushTimer = Timer.builder(METRIC_PREFIX + ".flush").register(meterRegistry);
+        meterRegistry.gaugeCollectionSize(METRIC_PREFIX + ".queue.size", List.of(), queue);
+        this.writerThread = new Thread(this::run, "kpi-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    public void submit(LocalDateTime timestamp, String type, String value) {
+        if (rollup.isEnabled()) {
+            rollup.increment(timestamp, type, value);
+            if (!rollup.isRawEvents()) {
+                return;
+            }
+        }
+        KpiData kpiData = KpiData.builder()
+                .timestamp(timestamp)
+                .type(type)
+                .value(value)
+                .build();
+        if (queue.offer(kpiData)) {
+            return;
+        }
+        switch (backpressurePolicy) {
+            case DROP_OLDEST -> {
+                if (queue.poll() != null) {
+                    dropped.increment();
+                }
+                if (!queue.offer(kpiData)) {
+                    dropped.increment();
+                }
+            }
+            case CALLER_RUNS -> {
+                callerRuns.increment();
+                flush(List.of(kpiData));
+            }
+            case SPOOL -> spool(List.of(kpiData));
+            default -> dropped.increment();
+        }
+    }
+
+    /**
+     * Stops the background thread after writing all queued events. Events left in the spool are replayed after the
+     * next start.
+     */
+    public void shutdown() throws InterruptedException {
+        running = false;
+        writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        spool.close();
+    }
+
+    private void run() {
+        List<KpiData> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Kpi writer interrupted, {} queued events are not written", queue.size());
+                return;
+            }
+            flush(batch);
+            batch.clear();
+            replaySpool();
+            flushRollup(rollup.drainCompleted(LocalDateTime.now()));
+        }
+        while (queue.drainTo(batch, batchSize) > 0) {
+            flush(batch);
+            batch.clear();
+        }
+        flushRollup(rollup.drainAll());
+    }
+
+    private void collect(List<KpiData> batch) throws InterruptedException {
+        // wakes up regularly to notice a shutdown
+        KpiData first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            KpiData next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<KpiData> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (spool.isEnabled() && System.nanoTime() - databaseRetryAt < 0) {
+            spool(batch);
+            return;
+        }
+        try {
+            flushTimer.record(() -> kpiDataService.saveKpiData(batch));
+            flushed.increment(batch.size());
+        } catch (RuntimeException e) {
+            if (!spool.isEnabled()) {
+                failed.increment(batch.size());
+                log.error("Unable to write {} kpi events", batch.size(), e);
+                return;
+            }
+            log.warn("Unable to write {} kpi events, spooling them", batch.size(), e);
+            databaseRetryAt = System.nanoTime() + replayRetryNanos;
+            spool(batch);
+        }
+    }
+
+    private void spool(List<KpiData> batch) {
+        int appended = 0;
+        try {
+            for (KpiData kpiData : batch) {
+                spool.append(kpiData);
+                appended++;
+            }
+        } catch (IOException | RuntimeException e) {
+            failed.increment(batch.size() - appended);
+            log.error("Unable to spool {} kpi events", batch.size() - appended, e);
+        }
+        spooled.increment(appended);
+    }
+
+    private void flushRollup(List<KpiRollupCount> counts) {
+        if (counts.isEmpty()) {
+            return;
+        }
+        try {
+            kpiDataService.saveKpiRollup(counts);
+            rollupFlushed.increment(counts.size());
+        } catch (RuntimeException e) {
+            log.warn("Unable to write {} kpi rollup counts, retrying with the next minute", counts.size(), e);
+            if (running) {
+                rollup.restore(counts);
+            }
+        }
+    }
+
+    private void replaySpool() {
+        if (!spool.isEnabled()) {
+            return;
+        }
+        spool.force();
+        if (spool.isEmpty() || System.nanoTime() - databaseRetryAt < 0) {
+            return;
+        }
+        try {
+            replayed.increment(spool.replay(batchSize, kpiDataService::replayKpiData));
+        } catch (RuntimeException e) {
+            log.warn("Unable to replay spooled kpi events, {} are pending", spool.pending(), e);
+            databaseRetryAt = System.nanoTime() + replayRetryNanos;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import ch.admin.bag.covidcertificate.gateway.domain.KpiPartitionRepository;
+import ch.admin.bag.covidcertificate.gateway.domain.KpiPartitionRepository.KpiPartition;
+import ch.admin.bag.covidcertificate.gateway.domain.config.DataSourceConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Creates the monthly kpi partitions ahead of time and drops the partitions that are entirely older than the
+ * retention period, which is much cheaper than deleting the rows.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class KpiPartitionMaintenanceService {
+
+    private final KpiPartitionRepository kpiPartitionRepository;
+
+    @Value("${cc-api-gateway-service.kpi.partitions.enabled:false}")
+    private boolean enabled;
+
+    @Value("${cc-api-gateway-service.kpi.partitions.months-ahead:3}")
+    private int monthsAhead;
+
+    @Value("${cc-api-gateway-service.kpi.partitions.retention-months:0}")
+    private int retentionMonths;
+
+    @Scheduled(cron = "${cc-api-gateway-service.kpi.partitions.maintenance-cron:0 30 2 * * *}")
+    @Transactional(DataSourceConfig.KPI_TRANSACTION_MANAGER)
+    public void maintainPartitions() {
+        if (enabled) {
+            // kpi timestamps are written in the default time zone
+            maintainPartitions(YearMonth.now());
+        }
+    }
+
+    void maintainPartitions(YearMonth currentMonth) {
+        if (!kpiPartitionRepository.tryLock()) {
+            log.info("Kpi partitions are maintained by another instance");
+            return;
+        }
+        List<KpiPartition> partitions = kpiPartitionRepository.findPartitions();
+        createPartitions(currentMonth, partitions);
+        if (retentionMonths > 0) {
+            dropExpiredPartitions(currentMonth, partitions);
+        }
+    }
+
+    private void createPartitions(YearMonth currentMonth, List<KpiPartition> partitions) {
+        YearMonth lastMonth = currentMonth.plusMonths(monthsAhead);
+        YearMonth month = partitions.stream()
+                .map(KpiPartition::upperBound)
+                .filter(Objects::nonNull)
+                .max(Comparator.naturalOrder())
+                .map(YearMonth::from)
+                .orElse(currentMonth);
+        for (; !month.isAfter(lastMonth); month = month.plusMonths(1)) {
+            log.info("Creating kpi partition {}", kpiPartitionRepository.createPartition(month));
+        }
+    }
+
+    private void dropExpiredPartitions(YearMonth currentMonth, List<KpiPartition> partitions) {
+        LocalDateTime retainedFrom = currentMonth.minusMonths(retentionMonths).atDay(1).atStartOfDay();
+        for (KpiPartition partition : partitions) {
+            if (partition.upperBound() != null && !partition.upperBound().isAfter(retainedFrom)) {
+                log.info("Dropping kpi partition {} with events before {}", partition.name(), partition.upperBound());
+                kpiPartitionRepository.dropPartition(partition);
+            }
+        }
+    }
+}
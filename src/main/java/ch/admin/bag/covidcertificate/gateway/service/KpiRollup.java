@@ -0,0 +1,124 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import ch.admin.bag.covidcertificate.gateway.domain.KpiRollupCount;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts KPI events per minute, type and value in memory. The counters are striped, request threads counting the same
+ * key do not contend. Minutes are drained once they are completed for a few seconds, later events of such a minute
+ * are counted again and written as an additional row. A drained counter stays in place until a drain finds no new
+ * events on it, after its removal it is drained once more, so a request thread that looked it up just before still
+ * has its increment counted.
+ */
+public class KpiRollup {
+
+    private static final long GRACE_SECONDS = 5;
+
+    private final boolean enabled;
+    private final boolean rawEvents;
+    private final Map<Key, LongAdder> counters = new ConcurrentHashMap<>();
+    // drained by a single thread
+    private LocalDateTime drainedBefore = LocalDateTime.MIN;
+    private List<Map.Entry<Key, LongAdder>> removed = new ArrayList<>();
+
+    private KpiRollup() {
+        this.enabled = false;
+        this.rawEvents = true;
+    }
+
+    public KpiRollup(boolean rawEvents, MeterRegistry meterRegistry) {
+        this.enabled = true;
+        this.rawEvents = rawEvents;
+        meterRegistry.gaugeMapSize("cc.api.gateway.kpi.rollup.counters", List.of(), counters);
+    }
+
+    public static KpiRollup disabled() {
+        return new KpiRollup();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true if every event is written as raw kpi row in addition to the counts
+     */
+    public boolean isRawEvents() {
+        return rawEvents;
+    }
+
+    public void increment(LocalDateTime timestamp, String type, String value) {
+        Key key = new Key(timestamp.truncatedTo(ChronoUnit.MINUTES), type, value);
+        LongAdder counter = counters.get(key);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(key, k -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    /**
+     * Removes the counts of the minutes completed before <code>now</code>.
+     */
+    public List<KpiRollupCount> drainCompleted(LocalDateTime now) {
+        // events are counted right after taking their timestamp, they are not expected after the grace period
+        LocalDateTime completedBefore = now.minusSeconds(GRACE_SECONDS).truncatedTo(ChronoUnit.MINUTES);
+        if (!completedBefore.isAfter(drainedBefore)) {
+            return List.of();
+        }
+        drainedBefore = completedBefore;
+        return drain(completedBefore);
+    }
+
+    public List<KpiRollupCount> drainAll() {
+        return drain(LocalDateTime.MAX);
+    }
+
+    /**
+     * Adds counts that could not be written again, they are written with the next completed minute.
+     */
+    public void restore(List<KpiRollupCount> counts) {
+        for (KpiRollupCount count : counts) {
+            counters.computeIfAbsent(new Key(count.timestamp(), count.type(), count.value()), k -> new LongAdder())
+                    .add(count.count());
+        }
+    }
+
+    private List<KpiRollupCount> drain(LocalDateTime before) {
+        List<KpiRollupCount> counts = new ArrayList<>();
+        for (Map.Entry<Key, LongAdder> entry : removed) {
+            add(counts, entry.getKey(), entry.getValue().sumThenReset());
+        }
+        List<Map.Entry<Key, LongAdder>> removedNow = new ArrayList<>();
+        for (Map.Entry<Key, LongAdder> entry : counters.entrySet()) {
+            Key key = entry.getKey();
+            if (key.minute().isBefore(before)) {
+                // increments racing with the reset are counted by this or the next drain
+                long count = entry.getValue().sumThenReset();
+                if (count > 0) {
+                    add(counts, key, count);
+                } else if (counters.remove(key, entry.getValue())) {
+                    removedNow.add(Map.entry(key, entry.getValue()));
+                }
+            }
+        }
+        removed = removedNow;
+        return counts;
+    }
+
+    private static void add(List<KpiRollupCount> counts, Key key, long count) {
+        if (count > 0) {
+            counts.add(new KpiRollupCount(key.minute(), key.type(), key.value(), count));
+        }
+    }
+
+    private record Key(LocalDateTime minute, String type, String value) {
+    }
+}
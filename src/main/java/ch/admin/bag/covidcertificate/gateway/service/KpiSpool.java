@@ -0,0 +1,327 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import ch.admin.bag.covidcertificate.gateway.domain.KpiData;
+import ch.admin.bag.covidcertificate.gateway.domain.TimeOrderedUuid;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Durable local log for KPI events that cannot be written to the database in time. Events are appended to
+ * memory-mapped segment files, a new segment is started when the current one is full. Segments are replayed oldest
+ * first, the replayed offset is kept in the segment header and fully replayed segments are deleted.
+ * <p>
+ * Appended events survive a crash of the JVM, {@link #force()} additionally writes them to the disk. Events get their
+ * id when they are appended, so replaying an event twice after a crash does not duplicate it.
+ */
+@Slf4j
+public class KpiSpool {
+
+    static final String SEGMENT_PREFIX = "kpi-";
+    static final String SEGMENT_SUFFIX = ".spool";
+    // replayed offset
+    private static final int HEADER_SIZE = Long.BYTES;
+    // payload length and crc
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int FIXED_PAYLOAD_SIZE = 2 * Long.BYTES + Long.BYTES + Integer.BYTES + 1;
+    private static final int NULL_LENGTH = -1;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final AtomicLong pending = new AtomicLong();
+    private long nextSequence;
+
+    private KpiSpool() {
+        this.directory = null;
+        this.segmentSize = 0;
+        this.maxSegments = 0;
+    }
+
+    public KpiSpool(Path directory, int segmentSize, int maxSegments, MeterRegistry meterRegistry) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.filter(KpiSpool::isSegment).sorted().toList()) {
+                segments.addLast(openSegment(path, sequence(path)));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.addLast(openSegment(segmentPath(0), 0));
+        }
+        nextSequence = segments.getLast().sequence + 1;
+        meterRegistry.gauge("cc.api.gateway.kpi.spool.pending", pending);
+        meterRegistry.gaugeCollectionSize("cc.api.gateway.kpi.spool.segments", List.of(), segments);
+        log.info("Kpi spool in {} opened with {} pending events", directory, pending.get());
+    }
+
+    public static KpiSpool disabled() {
+        return new KpiSpool();
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    public boolean isEmpty() {
+        return pending.get() == 0;
+    }
+
+    public long pending() {
+        return pending.get();
+    }
+
+    public synchronized void append(KpiData kpiData) throws IOException {
+        int recordSize = RECORD_HEADER_SIZE + payloadSize(kpiData);
+        // a zero length after the record marks the end of the written records
+        if (HEADER_SIZE + recordSize + Integer.BYTES > segmentSize) {
+            throw new IllegalArgumentException("Kpi event of " + recordSize + " bytes does not fit into a spool segment");
+        }
+        Segment segment = segments.getLast();
+        if (segment.writePosition + recordSize + Integer.BYTES > segment.buffer.capacity()) {
+            segment = rotate();
+        }
+        int payloadPosition = segment.writePosition + RECORD_HEADER_SIZE;
+        ByteBuffer payload = segment.buffer.slice(payloadPosition, recordSize - RECORD_HEADER_SIZE);
+        encode(kpiData, payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload.flip());
+        segment.buffer.putInt(payloadPosition + recordSize - RECORD_HEADER_SIZE, 0);
+        segment.buffer.putInt(segment.writePosition + Integer.BYTES, (int) crc.getValue());
+        segment.buffer.putInt(segment.writePosition, recordSize - RECORD_HEADER_SIZE);
+        segment.writePosition += recordSize;
+        segment.dirty = true;
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Passes up to <code>maxEvents</code> of the oldest events to the writer. They are only removed from the spool if
+     * the writer returns normally.
+     *
+     * @return the number of replayed events
+     */
+    public int replay(int maxEvents, Consumer<List<KpiData>> writer) {
+        Segment segment;
+        List<KpiData> events = new ArrayList<>();
+        int position;
+        synchronized (this) {
+            segment = segments.getFirst();
+            position = segment.replayedPosition;
+            while (events.size() < maxEvents && position < segment.writePosition) {
+                int length = segment.buffer.getInt(position);
+                events.add(decode(segment.buffer.slice(position + RECORD_HEADER_SIZE, length)));
+                position += RECORD_HEADER_SIZE + length;
+            }
+        }
+        if (!events.isEmpty()) {
+            writer.accept(events);
+        }
+        synchronized (this) {
+            segment.replayedPosition = position;
+            segment.buffer.putLong(0, position);
+            segment.dirty = true;
+            pending.addAndGet(-events.size());
+            // the segment may have been deleted meanwhile by a rotation, if it was already replayed before
+            if (segment.isReplayed() && segment == segments.getFirst() && segment != segments.getLast()) {
+                segments.removeFirst();
+                delete(segment);
+            }
+        }
+        return events.size();
+    }
+
+    /**
+     * Writes appended events and replayed offsets to the disk.
+     */
+    public synchronized void force() {
+        for (Segment segment : segments) {
+            if (segment.dirty) {
+                segment.buffer.force();
+                segment.dirty = false;
+            }
+        }
+    }
+
+    public synchronized void close() {
+        if (!isEnabled()) {
+            return;
+        }
+        force();
+        for (Segment segment : segments) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                log.warn("Unable to close kpi spool segment {}", segment.path, e);
+            }
+        }
+        log.info("Kpi spool closed with {} pending events", pending.get());
+    }
+
+    private Segment rotate() throws IOException {
+        Segment current = segments.getLast();
+        if (current.isReplayed()) {
+            segments.removeLast();
+            delete(current);
+        } else if (segments.size() >= maxSegments) {
+            throw new IOException("Kpi spool is full with " + segments.size() + " segments");
+        } else {
+            current.buffer.force();
+            current.dirty = false;
+        }
+        Segment segment = openSegment(segmentPath(nextSequence), nextSequence++);
+        segments.addLast(segment);
+        return segment;
+    }
+
+    private Segment openSegment(Path path, long sequence) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size() > 0 ? channel.size() : segmentSize;
+        Segment segment = new Segment(sequence, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        long replayedPosition = segment.buffer.getLong(0);
+        segment.replayedPosition = replayedPosition >= HEADER_SIZE ? (int) replayedPosition : HEADER_SIZE;
+        // the records after the last valid one were not completely written before a crash
+        int position = segment.replayedPosition;
+        while (position + RECORD_HEADER_SIZE <= segment.buffer.capacity()) {
+            int length = segment.buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > segment.buffer.capacity()
+                    || !hasValidCrc(segment.buffer, position, length)) {
+                break;
+            }
+            position += RECORD_HEADER_SIZE + length;
+            pending.incrementAndGet();
+        }
+        segment.writePosition = position;
+        return segment;
+    }
+
+    private static boolean hasValidCrc(MappedByteBuffer buffer, int position, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(position + RECORD_HEADER_SIZE, length));
+        return buffer.getInt(position + Integer.BYTES) == (int) crc.getValue();
+    }
+
+    private static void delete(Segment segment) {
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            log.warn("Unable to delete replayed kpi spool segment {}", segment.path, e);
+        }
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    private static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long sequence(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static int payloadSize(KpiData kpiData) {
+        return FIXED_PAYLOAD_SIZE + stringSize(kpiData.getType()) + stringSize(kpiData.getValue())
+                + stringSize(kpiData.getUvci()) + stringSize(kpiData.getDetails()) + stringSize(kpiData.getCountry())
+                + stringSize(kpiData.getInAppDeliveryCode());
+    }
+
+    private static int stringSize(String value) {
+        return Integer.BYTES + (value != null ? value.getBytes(StandardCharsets.UTF_8).length : 0);
+    }
+
+    private static void encode(KpiData kpiData, ByteBuffer buffer) {
+        UUID id = kpiData.getId() != null ? kpiData.getId() : TimeOrderedUuid.next();
+        buffer.putLong(id.getMostSignificantBits());
+        buffer.putLong(id.getLeastSignificantBits());
+        buffer.putLong(kpiData.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+        buffer.putInt(kpiData.getTimestamp().getNano());
+        putString(buffer, kpiData.getType());
+        putString(buffer, kpiData.getValue());
+        putString(buffer, kpiData.getUvci());
+        putString(buffer, kpiData.getDetails());
+        putString(buffer, kpiData.getCountry());
+        putString(buffer, kpiData.getInAppDeliveryCode());
+        buffer.put((byte) (kpiData.isFraud() ? 1 : 0));
+    }
+
+    private static KpiData decode(ByteBuffer buffer) {
+        return KpiData.builder()
+                .id(new UUID(buffer.getLong(), buffer.getLong()))
+                .timestamp(LocalDateTime.ofEpochSecond(buffer.getLong(), buffer.getInt(), ZoneOffset.UTC))
+                .type(getString(buffer))
+                .value(getString(buffer))
+                .uvci(getString(buffer))
+                .details(getString(buffer))
+                .country(getString(buffer))
+                .inAppDeliveryCode(getString(buffer))
+                .fraud(buffer.get() == 1)
+                .build();
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Segment {
+        private final long sequence;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private int replayedPosition;
+        private boolean dirty;
+
+        private Segment(long sequence, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private boolean isReplayed() {
+            return replayedPosition == writePosition;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Listens for the notifications of the trigger on otprevocation, see <code>V1_0_11__notify-otp-revocation.sql</code>,
+ * and adds the revoked jti to {@link OtpRevocationService} right away instead of waiting for its next sync. The
+ * listener holds a connection of its own. Notifications sent while it is not connected are lost, it syncs the
+ * revocations after every (re)connect.
+ */
+@Slf4j
+public class OtpRevocationListener {
+
+    public static final String CHANNEL = "otp_revocation";
+    private static final String METRIC_PREFIX = "cc.api.gateway.otp.revocation.listener";
+    private static final int POLL_TIMEOUT_MILLIS = 1000;
+    private static final long VALIDATION_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final DataSource dataSource;
+    private final OtpRevocationService otpRevocationService;
+    private final long reconnectIntervalMillis;
+    private final Counter notifications;
+    private final AtomicInteger connected = new AtomicInteger();
+    private final Thread listenerThread;
+    private volatile boolean running = true;
+
+    private OtpRevocationListener() {
+        this.dataSource = null;
+        this.otpRevocationService = null;
+        this.reconnectIntervalMillis = 0;
+        this.notifications = null;
+        this.listenerThread = null;
+        this.running = false;
+    }
+
+    public OtpRevocationListener(DataSource dataSource, OtpRevocationService otpRevocationService,
+                                 long reconnectIntervalMillis, MeterRegistry meterRegistry) {
+        this.dataSource = dataSource;
+        this.otpRevocationService = otpRevocationService;
+        this.reconnectIntervalMillis = reconnectIntervalMillis;
+        this.notifications = Counter.builder(METRIC_PREFIX + ".notifications").register(meterRegistry);
+        meterRegistry.gauge(METRIC_PREFIX + ".connected", List.of(), connected);
+        this.listenerThread = new Thread(this::run, "otp-revocation-listener");
+        this.listenerThread.setDaemon(true);
+        this.listenerThread.start();
+    }
+
+    public static OtpRevocationListener disabled() {
+        return new OtpRevocationListener();
+    }
+
+    public boolean isConnected() {
+        return connected.get() == 1;
+    }
+
+    public void shutdown() throws InterruptedException {
+        if (listenerThread != null) {
+            running = false;
+            listenerThread.interrupt();
+            listenerThread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                if (!connection.isWrapperFor(PGConnection.class)) {
+                    log.warn("Otp revocations are only pushed by PostgreSQL, not listening");
+                    return;
+                }
+                listen(connection);
+            } catch (SQLException e) {
+                connected.set(0);
+                if (running) {
+                    log.warn("Listening for otp revocations failed, reconnecting in {} ms", reconnectIntervalMillis, e);
+                }
+            }
+            if (!sleep(reconnectIntervalMillis)) {
+                return;
+            }
+        }
+    }
+
+    private void listen(Connection connection) throws SQLException {
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("LISTEN " + CHANNEL);
+        }
+        connected.set(1);
+        log.info("Listening for otp revocations");
+        otpRevocationService.refresh();
+        long validateAt = System.nanoTime() + VALIDATION_INTERVAL_NANOS;
+        while (running) {
+            // returns after the timeout to notice a shutdown
+            PGNotification[] received = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+            if (received != null) {
+                for (PGNotification notification : received) {
+                    otpRevocationService.addRevokedJti(notification.getParameter());
+                    notifications.increment();
+                }
+            }
+            // a connection dropped without reset is only noticed when sending something
+            if (System.nanoTime() - validateAt > 0) {
+                if (!connection.isValid(5)) {
+                    throw new SQLException("Connection of the otp revocation listener is not valid anymore");
+                }
+                validateAt = System.nanoTime() + VALIDATION_INTERVAL_NANOS;
+            }
+        }
+        connected.set(0);
+    }
+
+    private boolean sleep(long millis) {
+        if (!running) {
+            return false;
+        }
+        try {
+            Thread.sleep(millis);
+            return running;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
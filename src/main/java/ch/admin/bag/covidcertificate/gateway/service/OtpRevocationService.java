@@ -1,34 +1,168 @@
 package ch.admin.bag.covidcertificate.gateway.service;
 
-import ch.admin.bag.covidcertificate.gateway.domain.OtpRevocation;
 import ch.admin.bag.covidcertificate.gateway.domain.OtpRevocationRepository;
+import ch.admin.bag.covidcertificate.gateway.domain.OtpRevocationRepository.RevokedJti;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+/**
+ * Keeps the jti of all revoked OTPs in a {@link JtiSet}, so a lookup does not depend on the number of revocations. The
+ * set is loaded with the first lookup, afterwards only the revocations created since the newest known one are added to
+ * it. A full reload replaces the set as a whole every full sync interval and drops deleted revocations.
+ * <p>
+ * With an OTP lifetime, revocations older than the lifetime are dropped as well. OTPs valid for longer than the
+ * lifetime, or without expiration, are then rejected, see {@link #keepsRevocationsFor(Instant, Instant)}. Long-term
+ * OTPs are valid for much longer than the short-lived ones, so there is no lifetime by default.
+ */
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class OtpRevocationService {
 
-    private static final String OTP_CACHE_NAME = "otps";
-
     private final OtpRevocationRepository otpRevocationRepository;
 
-    @Cacheable(OTP_CACHE_NAME)
-    public List<OtpRevocation> getOtpRevocations() {
-        return otpRevocationRepository.findAll();
+    @Value("${cc-api-gateway-service.otp-revocation.full-sync-interval:3600000}")
+    private long fullSyncInterval;
+
+    @Value("${cc-api-gateway-service.otp-revocation.sync-overlap:60000}")
+    private long syncOverlap;
+
+    @Value("${cc-api-gateway-service.otp-revocation.otp-lifetime:0}")
+    private long otpLifetime;
+
+    @Value("${cc-api-gateway-service.otp-revocation.cleanup.enabled:false}")
+    private boolean cleanupEnabled;
+
+    // the delta sync adds to the set while it is read
+    private volatile JtiSet revokedJtis;
+    // guarded by this
+    private final Set<String> pushedBeforeLoad = new HashSet<>();
+    private LocalDateTime highWaterMark;
+    private long lastFullSync;
+
+    public boolean isRevoked(String jti) {
+        return jti != null && revokedJtis().contains(jti);
     }
 
-    @Scheduled(fixedRateString = "${cc-api-gateway-service.cache-duration}")
-    @CacheEvict(value = OTP_CACHE_NAME, allEntries = true)
-    public void clearCache() {
-        log.info("Cleaning cache of otps list.");
+    /**
+     * @return false if the revocation of an OTP with the validity may be dropped before the OTP expires
+     */
+    public boolean keepsRevocationsFor(Instant issuedAt, Instant expiration) {
+        if (otpLifetime <= 0) {
+            return true;
+        }
+        return issuedAt != null && expiration != null
+                && Duration.between(issuedAt, expiration).toMillis() <= otpLifetime;
     }
 
+    /**
+     * Adds a revocation pushed by {@link OtpRevocationListener}. Waits for a running sync, so the jti is not lost when
+     * a full reload replaces the set. Before the first load, the jti is kept and added by the load.
+     */
+    public synchronized void addRevokedJti(String jti) {
+        if (jti == null) {
+            return;
+        }
+        if (revokedJtis != null) {
+            revokedJtis.add(jti);
+        } else {
+            pushedBeforeLoad.add(jti);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${cc-api-gateway-service.otp-revocation.sync-interval:60000}")
+    public void refresh() {
+        try {
+            sync();
+        } catch (RuntimeException e) {
+            JtiSet current = revokedJtis;
+            log.error("Unable to refresh the otp revocations, keeping {} revoked otps", current != null ? current.size() : 0, e);
+        }
+    }
+
+    /**
+     * Deletes the revocations of expired OTPs, so otprevocation does not keep growing. The table is written by the
+     * management service, only enable this if it does not clean up the table itself. Requires an OTP lifetime.
+     */
+    @Scheduled(cron = "${cc-api-gateway-service.otp-revocation.cleanup.cron:0 15 3 * * *}")
+    public void deleteExpiredRevocations() {
+        if (cleanupEnabled && otpLifetime <= 0) {
+            log.warn("Not deleting otp revocations without otp lifetime");
+        } else if (cleanupEnabled) {
+            int deleted = otpRevocationRepository.deleteCreatedBefore(expiredBefore());
+            log.info("Deleted {} revocations of expired otps", deleted);
+        }
+    }
+
+    private JtiSet revokedJtis() {
+        JtiSet jtis = revokedJtis;
+        if (jtis == null) {
+            synchronized (this) {
+                jtis = revokedJtis;
+                if (jtis == null) {
+                    jtis = loadAll();
+                }
+            }
+        }
+        return jtis;
+    }
+
+    private synchronized void sync() {
+        if (revokedJtis == null || highWaterMark == null || System.currentTimeMillis() - lastFullSync >= fullSyncInterval) {
+            loadAll();
+        } else {
+            loadCreatedSinceHighWaterMark();
+        }
+    }
+
+    private synchronized JtiSet loadAll() {
+        // taken before reading the rows, revocations created meanwhile are added by the next delta sync
+        LocalDateTime latestCreatedAt = otpRevocationRepository.findLatestCreatedAt();
+        List<String> loaded = otpLifetime > 0
+                ? otpRevocationRepository.findAllJtisCreatedSince(expiredBefore())
+                : otpRevocationRepository.findAllJtis();
+        JtiSet jtis = new JtiSet(loaded.size());
+        loaded.forEach(jtis::add);
+        pushedBeforeLoad.forEach(jtis::add);
+        pushedBeforeLoad.clear();
+        revokedJtis = jtis;
+        highWaterMark = latestCreatedAt;
+        lastFullSync = System.currentTimeMillis();
+        log.info("Loaded {} revoked otps", jtis.size());
+        return jtis;
+    }
+
+    private void loadCreatedSinceHighWaterMark() {
+        // looks back a bit, rows become visible when they are committed, not in the order of created_at
+        List<RevokedJti> created = otpRevocationRepository.findJtisCreatedSince(highWaterMark.minus(syncOverlap, ChronoUnit.MILLIS));
+        JtiSet jtis = revokedJtis;
+        int added = 0;
+        for (RevokedJti revokedJti : created) {
+            if (jtis.add(revokedJti.getJti())) {
+                added++;
+            }
+            if (revokedJti.getCreatedAt().isAfter(highWaterMark)) {
+                highWaterMark = revokedJti.getCreatedAt();
+            }
+        }
+        log.debug("Added {} revoked otps created since {}", added, highWaterMark);
+    }
+
+    /**
+     * A revocation is created after its OTP was issued, an older one belongs to an expired OTP.
+     */
+    private LocalDateTime expiredBefore() {
+        return LocalDateTime.now().minus(otpLifetime, ChronoUnit.MILLIS);
+    }
 }
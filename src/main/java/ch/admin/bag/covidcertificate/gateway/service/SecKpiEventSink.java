@@ -0,0 +1,251 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static ch.admin.bag.covidcertificate.gateway.Constants.KPI_CREATE_CERTIFICATE_TYPE;
+import static ch.admin.bag.covidcertificate.gateway.Constants.KPI_OTP_TYPE;
+import static ch.admin.bag.covidcertificate.gateway.Constants.KPI_SYSTEM_API;
+import static ch.admin.bag.covidcertificate.gateway.Constants.KPI_TIMESTAMP_KEY;
+import static ch.admin.bag.covidcertificate.gateway.Constants.LOG_FORMAT;
+import static ch.admin.bag.covidcertificate.gateway.Constants.SEC_KPI_EXT_ID;
+import static ch.admin.bag.covidcertificate.gateway.Constants.SEC_KPI_IDP_SOURCE;
+import static ch.admin.bag.covidcertificate.gateway.Constants.SEC_KPI_IP_ADDRESS;
+import static ch.admin.bag.covidcertificate.gateway.Constants.SEC_KPI_OTP_JWT_ID;
+import static ch.admin.bag.covidcertificate.gateway.Constants.SEC_KPI_OTP_TYPE;
+import static net.logstash.logback.argument.StructuredArguments.kv;
+
+/**
+ * Logs the sec-kpi events of OTP requests on a background thread, so the request threads only put the event into a
+ * lock-free ring buffer. The log line is the same as when it is logged by the request thread, including its MDC.
+ * Events are dropped if the ring buffer is full. The background thread sleeps while there are no events and is woken
+ * up by the next request thread publishing one. Optionally the events are also written to kpi by the
+ * {@link KpiDataWriter}.
+ */
+@Slf4j
+public class SecKpiEventSink {
+
+    private static final String METRIC_PREFIX = "cc.api.gateway.sec.kpi";
+
+    private final RingBuffer<PendingEvent> ringBuffer;
+    private final KpiDataWriter kpiDataWriter;
+    private final Counter published;
+    private final Counter overflow;
+    private final Counter failed;
+    private final Thread encoderThread;
+    private final AtomicBoolean sleeping = new AtomicBoolean();
+    private volatile boolean running = true;
+
+    private SecKpiEventSink(KpiDataWriter kpiDataWriter) {
+        this.ringBuffer = null;
+        this.kpiDataWriter = kpiDataWriter;
+        this.published = null;
+        this.overflow = null;
+        this.failed = null;
+        this.encoderThread = null;
+        this.running = false;
+    }
+
+    /**
+     * @param capacity      rounded up to a power of two
+     * @param kpiDataWriter writes the events to kpi, null to log them only
+     */
+    public SecKpiEventSink(int capacity, KpiDataWriter kpiDataWriter, MeterRegistry meterRegistry) {
+        this.ringBuffer = new RingBuffer<>(capacity);
+        this.kpiDataWriter = kpiDataWriter;
+        this.published = Counter.builder(METRIC_PREFIX + ".published").register(meterRegistry);
+        this.overflow = Counter.builder(METRIC_PREFIX + ".dropped").tag("reason", "overflow").register(meterRegistry);
+        this.failed = Counter.builder(METRIC_PREFIX + ".dropped").tag("reason", "error").register(meterRegistry);
+        meterRegistry.gauge(METRIC_PREFIX + ".pending", List.of(), ringBuffer, RingBuffer::size);
+        this.encoderThread = new Thread(this::run, "sec-kpi-encoder");
+        this.encoderThread.setDaemon(true);
+        this.encoderThread.start();
+    }
+
+    /**
+     * Logs the events on the calling thread.
+     */
+    public static SecKpiEventSink disabled() {
+        return new SecKpiEventSink(null);
+    }
+
+    /**
+     * Logs the events on the calling thread.
+     *
+     * @param kpiDataWriter writes the events to kpi, null to log them only
+     */
+    public static SecKpiEventSink disabled(KpiDataWriter kpiDataWriter) {
+        return new SecKpiEventSink(kpiDataWriter);
+    }
+
+    public void publish(SecKpiEvent event) {
+        if (ringBuffer == null) {
+            encode(event);
+        } else if (ringBuffer.offer(new PendingEvent(event, MDC.getCopyOfContextMap()))) {
+            published.increment();
+            if (sleeping.get() && sleeping.compareAndSet(true, false)) {
+                LockSupport.unpark(encoderThread);
+            }
+        } else {
+            overflow.increment();
+        }
+    }
+
+    /**
+     * Stops the background thread after logging all pending events.
+     */
+    public void shutdown() throws InterruptedException {
+        if (encoderThread != null) {
+            running = false;
+            LockSupport.unpark(encoderThread);
+            encoderThread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private void run() {
+        while (running) {
+            if (!drain()) {
+                // the size is checked after announcing the sleep, so a request thread publishing an event meanwhile
+                // either is seen here or sees the announcement and wakes the encoder up
+                sleeping.set(true);
+                if (running && ringBuffer.size() == 0) {
+                    LockSupport.park(this);
+                }
+                sleeping.set(false);
+            }
+        }
+        drain();
+    }
+
+    /**
+     * @return false if there was no event
+     */
+    private boolean drain() {
+        PendingEvent pending = ringBuffer.poll();
+        if (pending == null) {
+            return false;
+        }
+        do {
+            if (pending.mdc() != null) {
+                MDC.setContextMap(pending.mdc());
+            }
+            try {
+                encode(pending.event());
+            } catch (RuntimeException e) {
+                failed.increment();
+                log.warn("Unable to write sec-kpi event of {}", kv(SEC_KPI_OTP_JWT_ID, pending.event().jti()), e);
+            } finally {
+                MDC.clear();
+            }
+            pending = ringBuffer.poll();
+        } while (pending != null);
+        return true;
+    }
+
+    private void encode(SecKpiEvent event) {
+        log.info("sec-kpi: {} {} {} {} {} {} {}",
+                kv(KPI_TIMESTAMP_KEY, event.timestamp().format(LOG_FORMAT)),
+                kv(KPI_CREATE_CERTIFICATE_TYPE, KPI_SYSTEM_API),
+                kv(SEC_KPI_OTP_JWT_ID, event.jti()),
+                kv(SEC_KPI_OTP_TYPE, event.otpType()),
+                kv(SEC_KPI_IP_ADDRESS, event.ipAddress()),
+                kv(SEC_KPI_EXT_ID, event.userExtId()),
+                kv(SEC_KPI_IDP_SOURCE, event.idpSource()));
+        if (kpiDataWriter != null) {
+            kpiDataWriter.submit(event.timestamp(), KPI_OTP_TYPE, event.userExtId());
+        }
+    }
+
+    public record SecKpiEvent(LocalDateTime timestamp, String jti, String otpType, String ipAddress, String userExtId,
+                              String idpSource) {
+    }
+
+    /**
+     * @param mdc MDC of the request thread, null if it was empty
+     */
+    private record PendingEvent(SecKpiEvent event, Map<String, String> mdc) {
+    }
+
+    /**
+     * Bounded queue for many producers and a single consumer, after Dmitry Vyukov's bounded MPMC queue. Every slot has
+     * a sequence telling whether it is free for the producer of a position or filled for the consumer, a producer
+     * claims a position with a single CAS.
+     */
+    static final class RingBuffer<E> {
+
+        private final AtomicReferenceArray<E> slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        // written by the consumer only
+        private volatile long head;
+
+        RingBuffer(int capacity) {
+            int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+            this.slots = new AtomicReferenceArray<>(size);
+            this.sequences = new AtomicLongArray(size);
+            this.mask = size - 1;
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        /**
+         * @return false if the buffer is full
+         */
+        boolean offer(E element) {
+            long position = tail.get();
+            while (true) {
+                int index = (int) position & mask;
+                long difference = sequences.getAcquire(index) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        slots.setPlain(index, element);
+                        sequences.setRelease(index, position + 1);
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (difference < 0) {
+                    // the slot still holds the element of the previous round
+                    return false;
+                } else {
+                    position = tail.get();
+                }
+            }
+        }
+
+        /**
+         * Must only be called by the consumer.
+         *
+         * @return null if the buffer is empty
+         */
+        E poll() {
+            long position = head;
+            int index = (int) position & mask;
+            if (sequences.getAcquire(index) != position + 1) {
+                return null;
+            }
+            E element = slots.getPlain(index);
+            slots.setPlain(index, null);
+            sequences.setRelease(index, position + mask + 1);
+            head = position + 1;
+            return element;
+        }
+
+        int size() {
+            return (int) Math.max(0, tail.get() - head);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import ch.admin.bag.covidcertificate.gateway.service.model.UserAuthorizationData;
+import ch.admin.bag.covidcertificate.gateway.service.util.CacheUtils;
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HexFormat;
+
+/**
+ * Bounded concurrent cache from the SHA-256 digest of an OTP to the result of its validation, so a long-term OTP used for many
+ * requests is verified only once. An entry expires after the time to live, at the latest when the OTP expires. Only the
+ * signature verification and the claim checks are cached, callers still check the revocation of the jti and whether
+ * the signing key of the <code>kid</code> is still known on every hit.
+ */
+public class VerifiedTokenCache {
+
+    private static final String METRIC_NAME = "cc.api.gateway.jwt.cache";
+
+    private final Cache<String, VerifiedToken> cache;
+    private final Duration timeToLive;
+    private final Clock clock;
+    private final Counter hits;
+    private final Counter misses;
+
+    private VerifiedTokenCache() {
+        this.cache = null;
+        this.timeToLive = null;
+        this.clock = null;
+        this.hits = null;
+        this.misses = null;
+    }
+
+    public VerifiedTokenCache(int maxSize, Duration timeToLive, MeterRegistry meterRegistry) {
+        this(maxSize, timeToLive, meterRegistry, Clock.systemUTC());
+    }
+
+    VerifiedTokenCache(int maxSize, Duration timeToLive, MeterRegistry meterRegistry, Clock clock) {
+        this.cache = CacheUtils.boundedCache(maxSize);
+        this.timeToLive = timeToLive;
+        this.clock = clock;
+        this.hits = Counter.builder(METRIC_NAME).tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder(METRIC_NAME).tag("result", "miss").register(meterRegistry);
+        meterRegistry.gauge(METRIC_NAME + ".size", Collections.emptyList(), cache, Cache::estimatedSize);
+    }
+
+    public static VerifiedTokenCache disabled() {
+        return new VerifiedTokenCache();
+    }
+
+    /**
+     * @return the result of a previous validation of the token, null if it is not cached or expired
+     */
+    public VerifiedToken get(String token) {
+        if (cache == null) {
+            return null;
+        }
+        String digest = digest(token);
+        VerifiedToken cached = cache.getIfPresent(digest);
+        if (cached != null) {
+            if (clock.instant().isBefore(cached.expiresAt())) {
+                hits.increment();
+                return cached;
+            }
+            cache.invalidate(digest);
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * @param kid        <code>kid</code> of the key the token was verified with, null if it has none
+     * @param expiration expiration of the token, null if it does not expire
+     */
+    public void put(String token, UserAuthorizationData authorizationData, String jti, String otpType, String kid, Instant expiration) {
+        if (cache == null) {
+            return;
+        }
+        Instant expiresAt = clock.instant().plus(timeToLive);
+        if (expiration != null && expiration.isBefore(expiresAt)) {
+            expiresAt = expiration;
+        }
+        cache.put(digest(token), new VerifiedToken(authorizationData, jti, otpType, kid, expiresAt));
+    }
+
+    private static String digest(String token) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(messageDigest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public record VerifiedToken(UserAuthorizationData authorizationData, String jti, String otpType, String kid,
+                                Instant expiresAt) {
+    }
+}
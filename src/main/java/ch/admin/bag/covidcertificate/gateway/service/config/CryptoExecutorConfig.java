@@ -0,0 +1,29 @@
+package ch.admin.bag.covidcertificate.gateway.service.config;
+
+import ch.admin.bag.covidcertificate.gateway.service.CryptoExecutor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CryptoExecutorConfig {
+
+    @Value("${cc-api-gateway-service.crypto-executor.enabled:false}")
+    private boolean enabled;
+
+    @Value("${cc-api-gateway-service.crypto-executor.threads:0}")
+    private int threads;
+
+    @Value("${cc-api-gateway-service.crypto-executor.queue-capacity:256}")
+    private int queueCapacity;
+
+    @Bean(destroyMethod = "shutdown")
+    public CryptoExecutor cryptoExecutor(MeterRegistry meterRegistry) {
+        if (!enabled) {
+            return CryptoExecutor.disabled();
+        }
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return new CryptoExecutor(poolSize, queueCapacity, meterRegistry);
+    }
+}
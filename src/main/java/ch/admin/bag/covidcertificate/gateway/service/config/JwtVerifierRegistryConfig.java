@@ -0,0 +1,22 @@
+package ch.admin.bag.covidcertificate.gateway.service.config;
+
+import ch.admin.bag.covidcertificate.gateway.service.JwtVerifierRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+import java.nio.file.Path;
+
+@Configuration
+public class JwtVerifierRegistryConfig {
+
+    @Value("${cc-api-gateway-service.jwt.jwks.location:}")
+    private String jwksLocation;
+
+    @Bean
+    public JwtVerifierRegistry jwtVerifierRegistry() {
+        Path location = StringUtils.hasText(jwksLocation) ? Path.of(jwksLocation) : null;
+        return new JwtVerifierRegistry(location);
+    }
+}
@@ -0,0 +1,66 @@
+package ch.admin.bag.covidcertificate.gateway.service.config;
+
+import ch.admin.bag.covidcertificate.gateway.service.KpiDataService;
+import ch.admin.bag.covidcertificate.gateway.service.KpiDataWriter;
+import ch.admin.bag.covidcertificate.gateway.service.KpiDataWriter.BackpressurePolicy;
+import ch.admin.bag.covidcertificate.gateway.service.KpiRollup;
+import ch.admin.bag.covidcertificate.gateway.service.KpiSpool;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+@Configuration
+public class KpiDataWriterConfig {
+
+    @Value("${cc-api-gateway-service.kpi.writer.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${cc-api-gateway-service.kpi.writer.batch-size:200}")
+    private int batchSize;
+
+    @Value("${cc-api-gateway-service.kpi.writer.flush-interval:1000}")
+    private long flushInterval;
+
+    @Value("${cc-api-gateway-service.kpi.writer.backpressure:CALLER_RUNS}")
+    private BackpressurePolicy backpressurePolicy;
+
+    @Value("${cc-api-gateway-service.kpi.spool.enabled:false}")
+    private boolean spoolEnabled;
+
+    @Value("${cc-api-gateway-service.kpi.spool.directory:}")
+    private String spoolDirectory;
+
+    @Value("${cc-api-gateway-service.kpi.spool.segment-size:16777216}")
+    private int spoolSegmentSize;
+
+    @Value("${cc-api-gateway-service.kpi.spool.max-segments:64}")
+    private int spoolMaxSegments;
+
+    @Value("${cc-api-gateway-service.kpi.spool.replay-retry-interval:10000}")
+    private long replayRetryInterval;
+
+    @Value("${cc-api-gateway-service.kpi.rollup.enabled:false}")
+    private boolean rollupEnabled;
+
+    @Value("${cc-api-gateway-service.kpi.rollup.raw-events:true}")
+    private boolean rawEvents;
+
+    @Bean(destroyMethod = "shutdown")
+    public KpiDataWriter kpiDataWriter(KpiDataService kpiDataService, MeterRegistry meterRegistry) throws IOException {
+        if (spoolEnabled && !StringUtils.hasText(spoolDirectory)) {
+            // a temporary directory does not survive a restart of the container
+            throw new IllegalStateException("cc-api-gateway-service.kpi.spool.directory is required with an enabled kpi spool");
+        }
+        KpiSpool spool = spoolEnabled
+                ? new KpiSpool(Path.of(spoolDirectory), spoolSegmentSize, spoolMaxSegments, meterRegistry)
+                : KpiSpool.disabled();
+        KpiRollup rollup = rollupEnabled ? new KpiRollup(rawEvents, meterRegistry) : KpiRollup.disabled();
+        return new KpiDataWriter(kpiDataService, queueCapacity, batchSize, flushInterval, backpressurePolicy, spool,
+                replayRetryInterval, rollup, meterRegistry);
+    }
+}
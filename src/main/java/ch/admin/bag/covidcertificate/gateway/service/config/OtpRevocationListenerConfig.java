@@ -0,0 +1,51 @@
+package ch.admin.bag.covidcertificate.gateway.service.config;
+
+import ch.admin.bag.covidcertificate.gateway.service.OtpRevocationListener;
+import ch.admin.bag.covidcertificate.gateway.service.OtpRevocationService;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.jdbc.DatabaseDriver;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.util.ClassUtils;
+
+import java.sql.Driver;
+
+@Configuration
+public class OtpRevocationListenerConfig {
+
+    @Value("${cc-api-gateway-service.otp-revocation.listen.enabled:false}")
+    private boolean enabled;
+
+    @Value("${cc-api-gateway-service.otp-revocation.listen.reconnect-interval:10000}")
+    private long reconnectInterval;
+
+    @Bean(destroyMethod = "shutdown")
+    public OtpRevocationListener otpRevocationListener(@Qualifier("dataSource") HikariDataSource pool,
+                                                       OtpRevocationService otpRevocationService,
+                                                       MeterRegistry meterRegistry) {
+        if (!enabled) {
+            return OtpRevocationListener.disabled();
+        }
+        // a connection outside of the pools, it is held as long as the gateway runs. It connects like the connections
+        // of the pool, including its data-source-properties, e.g. SSL and socket timeouts
+        SimpleDriverDataSource dataSource = new SimpleDriverDataSource();
+        String driverClassName = pool.getDriverClassName() != null
+                ? pool.getDriverClassName()
+                : DatabaseDriver.fromJdbcUrl(pool.getJdbcUrl()).getDriverClassName();
+        dataSource.setDriverClass(loadDriverClass(driverClassName));
+        dataSource.setUrl(pool.getJdbcUrl());
+        dataSource.setUsername(pool.getUsername());
+        dataSource.setPassword(pool.getPassword());
+        dataSource.setConnectionProperties(pool.getDataSourceProperties());
+        return new OtpRevocationListener(dataSource, otpRevocationService, reconnectInterval, meterRegistry);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Driver> loadDriverClass(String driverClassName) {
+        return (Class<? extends Driver>) ClassUtils.resolveClassName(driverClassName, OtpRevocationListenerConfig.class.getClassLoader());
+    }
+}
@@ -0,0 +1,30 @@
+package ch.admin.bag.covidcertificate.gateway.service.config;
+
+import ch.admin.bag.covidcertificate.gateway.service.KpiDataWriter;
+import ch.admin.bag.covidcertificate.gateway.service.SecKpiEventSink;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class SecKpiEventSinkConfig {
+
+    @Value("${cc-api-gateway-service.sec-kpi.async.enabled:false}")
+    private boolean enabled;
+
+    @Value("${cc-api-gateway-service.sec-kpi.async.capacity:8192}")
+    private int capacity;
+
+    @Value("${cc-api-gateway-service.sec-kpi.persist:false}")
+    private boolean persist;
+
+    @Bean(destroyMethod = "shutdown")
+    public SecKpiEventSink secKpiEventSink(KpiDataWriter kpiDataWriter, MeterRegistry meterRegistry) {
+        KpiDataWriter writer = persist ? kpiDataWriter : null;
+        if (!enabled) {
+            return SecKpiEventSink.disabled(writer);
+        }
+        return new SecKpiEventSink(capacity, writer, meterRegistry);
+    }
+}
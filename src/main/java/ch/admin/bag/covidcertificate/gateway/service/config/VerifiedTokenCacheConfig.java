@@ -0,0 +1,30 @@
+package ch.admin.bag.covidcertificate.gateway.service.config;
+
+import ch.admin.bag.covidcertificate.gateway.service.VerifiedTokenCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class VerifiedTokenCacheConfig {
+
+    @Value("${cc-api-gateway-service.jwt.verified-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${cc-api-gateway-service.jwt.verified-cache.max-size:10000}")
+    private int maxSize;
+
+    @Value("${cc-api-gateway-service.jwt.verified-cache.ttl:300000}")
+    private long ttl;
+
+    @Bean
+    public VerifiedTokenCache verifiedTokenCache(MeterRegistry meterRegistry) {
+        if (!enabled) {
+            return VerifiedTokenCache.disabled();
+        }
+        return new VerifiedTokenCache(maxSize, Duration.ofMillis(ttl), meterRegistry);
+    }
+}
@@ -0,0 +1,18 @@
+package ch.admin.bag.covidcertificate.gateway.service.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+public final class CacheUtils {
+
+    /**
+     * Size bounded cache whose eviction runs on the calling threads instead of the common pool, which the request
+     * threads would otherwise compete with for the few cores of an instance.
+     */
+    public static <K, V> Cache<K, V> boundedCache(int maxSize) {
+        return Caffeine.newBuilder().maximumSize(maxSize).executor(Runnable::run).build();
+    }
+}
@@ -0,0 +1,72 @@
+package ch.admin.bag.covidcertificate.gateway.service.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Entries parsed from a local file and replaced all at once when the file changes. If the file cannot be read or
+ * parsed, the loaded entries are kept.
+ */
+@Slf4j
+public class ReloadableFile<V> {
+
+    private final Path location;
+    private final String description;
+    private final Parser<V> parser;
+    private volatile Map<String, V> entries = Collections.emptyMap();
+    private volatile FileTime loadedModificationTime;
+
+    /**
+     * @param location    the file, null if there is none and the entries stay empty
+     * @param description what the entries are, for the logs
+     */
+    public ReloadableFile(Path location, String description, Parser<V> parser) {
+        this.location = location;
+        this.description = description;
+        this.parser = parser;
+        if (location != null) {
+            reload();
+        }
+    }
+
+    public Map<String, V> entries() {
+        return entries;
+    }
+
+    public void reloadIfModified() {
+        if (location == null) {
+            return;
+        }
+        try {
+            if (!Files.getLastModifiedTime(location).equals(loadedModificationTime)) {
+                reload();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to check {} at {}, keeping {} loaded entries", description, location, entries.size(), e);
+        }
+    }
+
+    public synchronized void reload() {
+        try {
+            FileTime modificationTime = Files.getLastModifiedTime(location);
+            Map<String, V> loaded = parser.parse(location);
+            entries = Collections.unmodifiableMap(loaded);
+            loadedModificationTime = modificationTime;
+            log.info("Loaded {} {} from {}", loaded.size(), description, location);
+        } catch (IOException | GeneralSecurityException | IllegalArgumentException e) {
+            log.error("Unable to load {} from {}, keeping {} loaded entries", description, location, entries.size(), e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Parser<V> {
+        Map<String, V> parse(Path location) throws IOException, GeneralSecurityException;
+    }
+}
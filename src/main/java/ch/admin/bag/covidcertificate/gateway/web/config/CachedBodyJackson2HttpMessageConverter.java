@@ -0,0 +1,62 @@
+package ch.admin.bag.covidcertificate.gateway.web.config;
+
+import ch.admin.bag.covidcertificate.gateway.filters.CachedBodyHttpServletRequest;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.InvalidDefinitionException;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConversionException;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.util.WebUtils;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lets Jackson parse the body cached by the integrity filter directly from its array instead of going through
+ * the request input stream. Requests without a cached body are read as usual.
+ */
+public class CachedBodyJackson2HttpMessageConverter extends MappingJackson2HttpMessageConverter {
+
+    public CachedBodyJackson2HttpMessageConverter(ObjectMapper objectMapper) {
+        super(objectMapper);
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) throws IOException {
+        CachedBodyHttpServletRequest cachedBodyRequest = getCachedBodyRequest();
+        if (cachedBodyRequest == null || !isUtf8(inputMessage.getHeaders().getContentType())) {
+            return super.read(type, contextClass, inputMessage);
+        }
+
+        JavaType javaType = getJavaType(type, contextClass);
+        try {
+            return cachedBodyRequest.withCachedBody((body, length) -> getObjectMapper().readValue(body, 0, length, javaType));
+        } catch (InvalidDefinitionException ex) {
+            throw new HttpMessageConversionException("Type definition error: " + ex.getType(), ex);
+        } catch (JsonProcessingException ex) {
+            throw new HttpMessageNotReadableException("JSON parse error: " + ex.getOriginalMessage(), ex, inputMessage);
+        }
+    }
+
+    private static CachedBodyHttpServletRequest getCachedBodyRequest() {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes instanceof ServletRequestAttributes servletRequestAttributes) {
+            return WebUtils.getNativeRequest(servletRequestAttributes.getRequest(), CachedBodyHttpServletRequest.class);
+        }
+        return null;
+    }
+
+    private static boolean isUtf8(MediaType contentType) {
+        Charset charset = contentType != null ? contentType.getCharset() : null;
+        return charset == null || StandardCharsets.UTF_8.equals(charset);
+    }
+}
@@ -1,6 +1,6 @@
 package ch.admin.bag.covidcertificate.gateway.web.config;
 
-import ch.admin.bag.covidcertificate.gateway.service.KpiDataService;
+import ch.admin.bag.covidcertificate.gateway.service.KpiDataWriter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
@@ -26,7 +26,7 @@ import static net.logstash.logback.argument.StructuredArguments.kv;
 @RequiredArgsConstructor
 public class CustomHeaderAuthenticationFilter extends OncePerRequestFilter {
 
-    private final KpiDataService kpiDataService;
+    private final KpiDataWriter kpiDataWriter;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
@@ -53,7 +53,7 @@ public class CustomHeaderAuthenticationFilter extends OncePerRequestFilter {
             return;
         }
 
-        log.info("Found clientCert: '{}'", clientCert);
+        log.debug("Found clientCert: '{}'", clientCert);
 
         Authentication auth = new CustomHeaderAuthenticationToken(commonName, clientCert);
         SecurityContextHolder.getContext().setAuthentication(auth);
@@ -66,6 +66,6 @@ public class CustomHeaderAuthenticationFilter extends OncePerRequestFilter {
     private void logKpi(String commonName) {
         LocalDateTime timestamp = LocalDateTime.now();
         log.info("kpi: {} {}", kv(KPI_TIMESTAMP_KEY, timestamp.format(LOG_FORMAT)), kv(KPI_CERT_KEY, commonName));
-        kpiDataService.saveKpiData(timestamp, KPI_COMMON_NAME_TYPE, commonName);
+        kpiDataWriter.submit(timestamp, KPI_COMMON_NAME_TYPE, commonName);
     }
 }
@@ -0,0 +1,44 @@
+package ch.admin.bag.covidcertificate.gateway.web.config;
+
+import ch.admin.bag.covidcertificate.gateway.error.ErrorResponseCatalog;
+import ch.admin.bag.covidcertificate.gateway.error.RestError;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+
+/**
+ * Writes {@link RestError} response bodies from the {@link ErrorResponseCatalog} instead of serializing them again.
+ */
+public class RestErrorHttpMessageConverter extends AbstractHttpMessageConverter<RestError> {
+
+    private final ErrorResponseCatalog errorResponseCatalog;
+
+    public RestErrorHttpMessageConverter(ErrorResponseCatalog errorResponseCatalog) {
+        super(MediaType.APPLICATION_JSON);
+        this.errorResponseCatalog = errorResponseCatalog;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return RestError.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected RestError readInternal(Class<? extends RestError> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("RestError is only written", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(RestError restError, HttpOutputMessage outputMessage) throws IOException {
+        errorResponseCatalog.write(restError, outputMessage.getBody());
+    }
+}
@@ -1,15 +1,78 @@
 package ch.admin.bag.covidcertificate.gateway.web.config;
 
+import ch.admin.bag.covidcertificate.gateway.error.ErrorResponseCatalog;
+import ch.admin.bag.covidcertificate.gateway.filters.BodyBufferPool;
+import ch.admin.bag.covidcertificate.gateway.filters.ClientCertificateCache;
 import ch.admin.bag.covidcertificate.gateway.filters.IntegrityFilter;
+import ch.admin.bag.covidcertificate.gateway.filters.IntegrityStageMetrics;
+import ch.admin.bag.covidcertificate.gateway.filters.PinnedClientKeyRegistry;
+import ch.admin.bag.covidcertificate.gateway.filters.VerifiedSignatureCache;
+import ch.admin.bag.covidcertificate.gateway.filters.VerifiedSignatureCache.ReplayPolicy;
+import ch.admin.bag.covidcertificate.gateway.service.CryptoExecutor;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.util.StringUtils;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.nio.file.Path;
+import java.util.List;
+
 @Configuration
+@RequiredArgsConstructor
 public class WebConfig implements WebMvcConfigurer {
 
+    private final MeterRegistry meterRegistry;
+    private final CryptoExecutor cryptoExecutor;
+    private final ObjectMapper objectMapper;
+
+    @Value("${cc-api-gateway-service.integrity.certificate-cache.max-size:1000}")
+    private int certificateCacheMaxSize;
+
+    @Value("${cc-api-gateway-service.integrity.max-body-size:1048576}")
+    private int maxBodySize;
+
+    @Value("${cc-api-gateway-service.integrity.body-buffer-pool.buffer-size:16384}")
+    private int bodyBufferSize;
+
+    @Value("${cc-api-gateway-service.integrity.body-buffer-pool.max-idle:64}")
+    private int bodyBufferMaxIdle;
+
+    @Value("${cc-api-gateway-service.integrity.replay.window:300000}")
+    private long replayWindow;
+
+    @Value("${cc-api-gateway-service.integrity.replay.max-size:10000}")
+    private int replayCacheMaxSize;
+
+    @Value("${cc-api-gateway-service.integrity.replay.policy:FLAG}")
+    private ReplayPolicy replayPolicy;
+
+    @Value("${cc-api-gateway-service.integrity.server-timing:false}")
+    private boolean serverTimingEnabled;
+
+    @Value("${cc-api-gateway-service.integrity.pinned-keys.location:}")
+    private String pinnedKeysLocation;
+
+    @Value("${cc-api-gateway-service.integrity.pinned-keys.required:false}")
+    private boolean pinnedKeysRequired;
+
+    @Bean
+    public ErrorResponseCatalog errorResponseCatalog() {
+        return new ErrorResponseCatalog(objectMapper);
+    }
+
+    @Bean
+    public PinnedClientKeyRegistry pinnedClientKeyRegistry() {
+        Path location = StringUtils.hasText(pinnedKeysLocation) ? Path.of(pinnedKeysLocation) : null;
+        return new PinnedClientKeyRegistry(location, pinnedKeysRequired);
+    }
+
     @Bean
     public FilterRegistrationBean<IntegrityFilter> integrityFilterRegistration() {
         FilterRegistrationBean<IntegrityFilter> registration = new FilterRegistrationBean<>();
@@ -21,7 +84,24 @@ public class WebConfig implements WebMvcConfigurer {
     }
 
     public IntegrityFilter integrityFilter() {
-        return new IntegrityFilter(new ObjectMapper());
+        return new IntegrityFilter(
+                errorResponseCatalog(),
+                new ClientCertificateCache(certificateCacheMaxSize, meterRegistry),
+                new BodyBufferPool(bodyBufferSize, bodyBufferMaxIdle),
+                maxBodySize,
+                new VerifiedSignatureCache(replayWindow, replayCacheMaxSize, replayPolicy, meterRegistry),
+                new IntegrityStageMetrics(meterRegistry, serverTimingEnabled),
+                pinnedClientKeyRegistry(),
+                cryptoExecutor);
     }
 
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        for (int i = 0; i < converters.size(); i++) {
+            if (converters.get(i) instanceof MappingJackson2HttpMessageConverter jacksonConverter) {
+                converters.set(i, new CachedBodyJackson2HttpMessageConverter(jacksonConverter.getObjectMapper()));
+            }
+        }
+        converters.add(0, new RestErrorHttpMessageConverter(errorResponseCatalog()));
+    }
 }
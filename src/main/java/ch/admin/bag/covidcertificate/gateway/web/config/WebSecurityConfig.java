@@ -1,6 +1,6 @@
 package ch.admin.bag.covidcertificate.gateway.web.config;
 
-import ch.admin.bag.covidcertificate.gateway.service.KpiDataService;
+import ch.admin.bag.covidcertificate.gateway.service.KpiDataWriter;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -19,7 +19,7 @@ import java.util.List;
 @RequiredArgsConstructor
 public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
 
-    private final KpiDataService kpiDataService;
+    private final KpiDataWriter kpiDataWriter;
 
     @Value("${cc-api-gateway-service.allowed-origin}")
     private String allowedOrigin;
@@ -36,7 +36,7 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
                 .and()
                 .sessionManagement()
                 .sessionCreationPolicy(SessionCreationPolicy.STATELESS)
-                .and().addFilterBefore(new CustomHeaderAuthenticationFilter(kpiDataService), BasicAuthenticationFilter.class)
+                .and().addFilterBefore(new CustomHeaderAuthenticationFilter(kpiDataWriter), BasicAuthenticationFilter.class)
                 .authorizeRequests().anyRequest().fullyAuthenticated();
     }
 
@@ -1,5 +1,6 @@
 package ch.admin.bag.covidcertificate.gateway.web.controller.utils;
 
+import ch.admin.bag.covidcertificate.gateway.filters.BodyCanonicalizer;
 import io.swagger.v3.oas.annotations.Hidden;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
@@ -9,6 +10,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -53,9 +55,8 @@ public class SignatureTestController {
 
         Base64.Encoder encoder = Base64.getEncoder();
 
-        String normalizedJson = payload.replaceAll("[\\n\\t ]", "");
         signature.initSign(privateKey);
-        signature.update(normalizedJson.getBytes());
+        BodyCanonicalizer.update(signature, payload.getBytes(StandardCharsets.UTF_8));
         String signatureString = encoder.encodeToString(signature.sign());
 
         HashMap<String, String> map = new HashMap<>();
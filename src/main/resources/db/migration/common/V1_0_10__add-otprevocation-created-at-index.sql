@@ -0,0 +1 @@
+create index idx_otprevocation_created_at on otprevocation (created_at);
@@ -0,0 +1,9 @@
+create table kpi_rollup
+(
+    timestamp timestamp not null,
+    type      varchar   not null,
+    value     varchar   not null,
+    count     bigint    not null
+);
+
+create index idx_kpi_rollup_timestamp on kpi_rollup (timestamp);
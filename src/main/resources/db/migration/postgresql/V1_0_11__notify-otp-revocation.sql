@@ -0,0 +1,16 @@
+-- pushes new revocations to the gateways listening on otp_revocation, see OtpRevocationListener
+create or replace function notify_otp_revocation() returns trigger
+    language plpgsql
+as
+$$
+begin
+    perform pg_notify('otp_revocation', new.jti);
+    return null;
+end;
+$$;
+
+create trigger trg_otprevocation_notify
+    after insert
+    on otprevocation
+    for each row
+execute procedure notify_otp_revocation();
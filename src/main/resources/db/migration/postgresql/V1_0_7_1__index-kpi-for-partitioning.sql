@@ -0,0 +1,4 @@
+-- Builds the index of the primary key kpi_legacy gets in V1_0_8__partition-kpi.sql, without blocking the writes to kpi.
+-- Flyway runs this migration outside of a transaction. If the build fails, the invalid index is left behind and has to
+-- be dropped before migrating again.
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS idx_kpi_id_timestamp ON kpi (id, timestamp);
@@ -0,0 +1,40 @@
+-- kpi becomes a table partitioned by month on timestamp. The existing rows are not copied, the old table is attached
+-- as the partition kpi_legacy for everything up to the end of the current month. Its primary key including timestamp
+-- uses the index built by V1_0_7_1 and replaces the primary key on id. Attaching still scans kpi_legacy once to check
+-- the partition bound, kpi is locked exclusively during that read-only scan.
+ALTER TABLE kpi RENAME TO kpi_legacy;
+ALTER TABLE kpi_legacy DROP CONSTRAINT kpi_pkey;
+ALTER TABLE kpi_legacy ADD CONSTRAINT kpi_legacy_pkey PRIMARY KEY USING INDEX idx_kpi_id_timestamp;
+ALTER INDEX idx_kpi_date_desc_type RENAME TO idx_kpi_legacy_date_desc_type;
+ALTER INDEX idx_kpi_date_second_desc RENAME TO idx_kpi_legacy_date_second_desc;
+
+CREATE TABLE kpi
+(
+    LIKE kpi_legacy INCLUDING DEFAULTS,
+    PRIMARY KEY (id, timestamp)
+) PARTITION BY RANGE (timestamp);
+
+-- the following partitions are created by KpiPartitionMaintenanceService, three months are created here in case the
+-- job does not run right away. Events without a partition, e.g. if the job falls behind, are written to kpi_default
+-- and moved when their partition is created.
+DO
+$$
+    DECLARE
+        legacy_end TIMESTAMP := date_trunc('month', now()) + INTERVAL '1 month';
+        month_start TIMESTAMP;
+    BEGIN
+        EXECUTE format('ALTER TABLE kpi ATTACH PARTITION kpi_legacy FOR VALUES FROM (MINVALUE) TO (%L)', legacy_end);
+        FOR i IN 0..2
+            LOOP
+                month_start := legacy_end + make_interval(months => i);
+                EXECUTE format('CREATE TABLE %I PARTITION OF kpi FOR VALUES FROM (%L) TO (%L)',
+                               'kpi_' || to_char(month_start, 'YYYY_MM'), month_start,
+                               month_start + INTERVAL '1 month');
+            END LOOP;
+        CREATE TABLE kpi_default PARTITION OF kpi DEFAULT;
+    END
+$$;
+
+-- the existing indexes of kpi_legacy are attached to the partitioned indexes instead of being built again
+CREATE INDEX idx_kpi_date_desc_type ON kpi (date_trunc('day', timestamp) DESC, type);
+CREATE INDEX idx_kpi_date_second_desc ON kpi (date_trunc('second', timestamp));
@@ -0,0 +1,75 @@
+package ch.admin.bag.covidcertificate.gateway.domain;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class KpiDataBatchRepositoryTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private KpiDataBatchRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:kpi;MODE=PostgreSQL;DB_CLOSE_DELAY=-1;NON_KEYWORDS=VALUE"));
+        jdbcTemplate.execute("create table kpi (id uuid not null primary key, timestamp timestamp not null, type varchar not null, "
+                + "value varchar not null, uvci varchar(39), details varchar(128), country varchar(2), "
+                + "fraud boolean not null default false, in_app_delivery_code varchar(15))");
+        repository = new KpiDataBatchRepository(jdbcTemplate);
+        ReflectionTestUtils.setField(repository, "batchSize", 3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("drop table kpi");
+    }
+
+    @Test
+    void insertsAllRowsInBatches_withClientSideIds() {
+        List<KpiData> kpiData = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            kpiData.add(KpiData.builder().timestamp(LocalDateTime.now()).type("cn").value("client-" + i).build());
+        }
+
+        repository.insertAll(kpiData);
+
+        assertEquals(7, jdbcTemplate.queryForObject("select count(distinct id) from kpi", Integer.class));
+    }
+
+    @Test
+    void keepsGivenIdAndOptionalColumns() {
+        UUID id = UUID.randomUUID();
+        repository.insertAll(List.of(KpiData.builder()
+                .id(id)
+                .timestamp(LocalDateTime.now())
+                .type("re")
+                .value("4376224")
+                .uvci("urn:uvci:01:CH:4757BD5A07E7A255B7139C8C")
+                .country("CH")
+                .fraud(true)
+                .build()));
+
+        assertEquals("CH", jdbcTemplate.queryForObject("select country from kpi where id = ? and fraud", String.class, id));
+    }
+
+    @Test
+    void insertMissing_skipsExistingRows() {
+        KpiData existing = KpiData.builder().id(UUID.randomUUID()).timestamp(LocalDateTime.now()).type("cn").value("client-0").build();
+        repository.insertAll(List.of(existing));
+        KpiData missing = KpiData.builder().id(UUID.randomUUID()).timestamp(LocalDateTime.now()).type("cn").value("client-1").build();
+
+        repository.insertMissing(List.of(existing, missing));
+
+        assertEquals(2, jdbcTemplate.queryForObject("select count(*) from kpi", Integer.class));
+    }
+}
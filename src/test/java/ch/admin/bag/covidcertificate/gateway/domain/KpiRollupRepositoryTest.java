@@ -0,0 +1,41 @@
+package ch.admin.bag.covidcertificate.gateway.domain;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class KpiRollupRepositoryTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private KpiRollupRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:kpi;MODE=PostgreSQL;DB_CLOSE_DELAY=-1;NON_KEYWORDS=VALUE"));
+        jdbcTemplate.execute("create table kpi_rollup (timestamp timestamp not null, type varchar not null, value varchar not null, "
+                + "count bigint not null)");
+        repository = new KpiRollupRepository(jdbcTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("drop table kpi_rollup");
+    }
+
+    @Test
+    void countsOfAMinuteAreSummedUp() {
+        LocalDateTime minute = LocalDateTime.of(2026, 10, 17, 10, 15);
+        repository.insertAll(List.of(new KpiRollupCount(minute, "cn", "client-a", 3), new KpiRollupCount(minute, "cn", "client-b", 1)));
+        repository.insertAll(List.of(new KpiRollupCount(minute, "cn", "client-a", 2)));
+
+        assertEquals(5, jdbcTemplate.queryForObject("select sum(count) from kpi_rollup where timestamp = ? and value = ?",
+                Long.class, minute, "client-a"));
+    }
+}
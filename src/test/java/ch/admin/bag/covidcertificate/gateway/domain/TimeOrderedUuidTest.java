@@ -0,0 +1,88 @@
+package ch.admin.bag.covidcertificate.gateway.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimeOrderedUuidTest {
+
+    private static final Instant NOW = Instant.parse("2026-10-17T10:15:30.123Z");
+
+    @Test
+    void encodesVersionVariantAndTimestamp() {
+        UUID uuid = new TimeOrderedUuid(Clock.fixed(NOW, ZoneOffset.UTC)).generate();
+
+        assertEquals(7, uuid.version());
+        assertEquals(2, uuid.variant());
+        assertEquals(NOW.toEpochMilli(), TimeOrderedUuid.timestamp(uuid));
+    }
+
+    @Test
+    void idsOfTheSameMillisecondAreIncreasing_alsoBeyondTheSequence() {
+        TimeOrderedUuid generator = new TimeOrderedUuid(Clock.fixed(NOW, ZoneOffset.UTC));
+        UUID previous = generator.generate();
+        for (int i = 0; i < 10_000; i++) {
+            UUID next = generator.generate();
+            assertTrue(compareUnsigned(previous, next) < 0, previous + " < " + next);
+            previous = next;
+        }
+    }
+
+    @Test
+    void idsStayIncreasing_whenTheClockGoesBackwards() {
+        AtomicLong millis = new AtomicLong(NOW.toEpochMilli());
+        TimeOrderedUuid generator = new TimeOrderedUuid(clock(millis));
+        UUID before = generator.generate();
+        millis.addAndGet(-5000);
+
+        UUID after = generator.generate();
+
+        assertEquals(NOW.toEpochMilli(), TimeOrderedUuid.timestamp(after));
+        assertTrue(compareUnsigned(before, after) < 0);
+    }
+
+    @Test
+    void staticGeneratorIsIncreasing() {
+        UUID previous = TimeOrderedUuid.next();
+        for (int i = 0; i < 1000; i++) {
+            UUID next = TimeOrderedUuid.next();
+            assertTrue(compareUnsigned(previous, next) < 0);
+            previous = next;
+        }
+    }
+
+    private static Clock clock(AtomicLong millis) {
+        return new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return Instant.ofEpochMilli(millis.get());
+            }
+        };
+    }
+
+    /**
+     * Byte order as compared by PostgreSQL, {@link UUID#compareTo} compares signed.
+     */
+    private static int compareUnsigned(UUID a, UUID b) {
+        int result = Long.compareUnsigned(a.getMostSignificantBits(), b.getMostSignificantBits());
+        return result != 0 ? result : Long.compareUnsigned(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+    }
+}
@@ -0,0 +1,69 @@
+package ch.admin.bag.covidcertificate.gateway.domain.config;
+
+import ch.admin.bag.covidcertificate.gateway.domain.KpiData;
+import ch.admin.bag.covidcertificate.gateway.domain.KpiDataBatchRepository;
+import ch.admin.bag.covidcertificate.gateway.domain.OtpRevocationRepository;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.actuate.autoconfigure.metrics.MetricsAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.metrics.export.simple.SimpleMetricsExportAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.metrics.jdbc.DataSourcePoolMetricsAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.transaction.TransactionAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DataSourceConfigTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(DataSourceAutoConfiguration.class, JdbcTemplateAutoConfiguration.class,
+                    HibernateJpaAutoConfiguration.class, TransactionAutoConfiguration.class, MetricsAutoConfiguration.class,
+                    SimpleMetricsExportAutoConfiguration.class, DataSourcePoolMetricsAutoConfiguration.class))
+            .withUserConfiguration(PersistenceConfiguration.class)
+            .withPropertyValues(
+                    "spring.datasource.url=jdbc:h2:mem:pools;MODE=PostgreSQL;DB_CLOSE_DELAY=-1;NON_KEYWORDS=VALUE",
+                    "spring.datasource.hikari.pool-name=default-pool",
+                    "spring.jpa.hibernate.ddl-auto=create-drop",
+                    "cc-api-gateway-service.kpi.datasource.hikari.pool-name=kpi-pool",
+                    "cc-api-gateway-service.kpi.datasource.hikari.maximum-pool-size=2");
+
+    @Test
+    void kpiRepositoriesUseTheirOwnPool() {
+        contextRunner.run(context -> {
+            HikariDataSource dataSource = context.getBean("dataSource", HikariDataSource.class);
+            HikariDataSource kpiDataSource = context.getBean("kpiDataSource", HikariDataSource.class);
+            assertThat(dataSource.getJdbcUrl()).isEqualTo(kpiDataSource.getJdbcUrl());
+            assertThat(kpiDataSource.getMaximumPoolSize()).isEqualTo(2);
+            assertThat(context.getBean(JdbcTemplate.class).getDataSource()).isSameAs(dataSource);
+            assertThat(context.getBean(DataSourceConfig.KPI_JDBC_TEMPLATE, JdbcTemplate.class).getDataSource()).isSameAs(kpiDataSource);
+
+            context.getBean(KpiDataBatchRepository.class).insertAll(List.of(
+                    KpiData.builder().timestamp(LocalDateTime.now()).type("cn").value("client").build()));
+            context.getBean(OtpRevocationRepository.class).findAll();
+
+            MeterRegistry meterRegistry = context.getBean(MeterRegistry.class);
+            assertThat(meterRegistry.get("hikaricp.connections.acquire").tag("pool", "kpi-pool").timer().count()).isPositive();
+            assertThat(meterRegistry.get("hikaricp.connections.acquire").tag("pool", "default-pool").timer().count()).isPositive();
+        });
+    }
+
+    @Configuration
+    @EntityScan(basePackageClasses = KpiData.class)
+    @EnableJpaRepositories(basePackageClasses = KpiData.class)
+    @Import({DataSourceConfig.class, KpiDataBatchRepository.class})
+    static class PersistenceConfiguration {
+    }
+}
@@ -0,0 +1,52 @@
+package ch.admin.bag.covidcertificate.gateway.error;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ErrorResponseCatalogTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ErrorResponseCatalog catalog = new ErrorResponseCatalog(objectMapper);
+
+    @Test
+    void containsErrorListConstants() {
+        assertTrue(catalog.contains(ErrorList.INVALID_SIGNATURE));
+        assertTrue(catalog.contains(ErrorList.INVALID_BEARER));
+        assertTrue(catalog.contains(ErrorList.EIAM_CALL_ERROR));
+        assertFalse(catalog.contains(new RestError(492, "Invalid OTP", HttpStatus.FORBIDDEN)));
+    }
+
+    @Test
+    void writesSameBodyAsObjectMapper() throws IOException {
+        ByteArrayOutputStream constant = new ByteArrayOutputStream();
+        catalog.write(ErrorList.SIGNATURE_PARSE, constant);
+        ByteArrayOutputStream dynamic = new ByteArrayOutputStream();
+        RestError restError = new RestError(500, "from remote", HttpStatus.BAD_GATEWAY);
+        catalog.write(restError, dynamic);
+
+        assertEquals(objectMapper.writeValueAsString(ErrorList.SIGNATURE_PARSE), constant.toString());
+        assertEquals(objectMapper.writeValueAsString(restError), dynamic.toString());
+    }
+
+    @Test
+    void writesStatusContentTypeAndBodyToResponse() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        catalog.write(ErrorList.PAYLOAD_TOO_LARGE, response);
+
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE.value(), response.getStatus());
+        assertEquals(MediaType.APPLICATION_JSON_VALUE, response.getContentType());
+        assertEquals(objectMapper.writeValueAsString(ErrorList.PAYLOAD_TOO_LARGE), response.getContentAsString());
+        assertEquals(response.getContentAsByteArray().length, response.getContentLength());
+    }
+}
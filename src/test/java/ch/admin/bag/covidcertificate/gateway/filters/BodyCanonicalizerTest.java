@@ -0,0 +1,62 @@
+package ch.admin.bag.covidcertificate.gateway.filters;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class BodyCanonicalizerTest {
+
+    private static PrivateKey privateKey;
+
+    @BeforeAll
+    static void setUpTests() throws GeneralSecurityException {
+        KeyPairGenerator keyPairGen = KeyPairGenerator.getInstance("RSA");
+        keyPairGen.initialize(2048);
+        privateKey = keyPairGen.generateKeyPair().getPrivate();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            " \n\r\t",
+            "{\n  \"familyName\": \"Müller\",\r\n\t\"givenName\": \"Zoë Ä\"\n}",
+            "{\"name\":\"日本 語\"}"
+    })
+    void producesSameSignatureAsRegexNormalization(String body) throws GeneralSecurityException {
+        assertArrayEquals(signRegexNormalized(body), signCanonicalized(body));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1023, 1024, 1025, 100_000})
+    void producesSameSignatureAsRegexNormalization_forBodiesAroundChunkSize(int size) throws GeneralSecurityException {
+        StringBuilder body = new StringBuilder();
+        while (body.length() < size) {
+            body.append("{\"key\": \"välue\",\n\t\"other\" :\r\n 42}");
+        }
+        String json = body.substring(0, size);
+
+        assertArrayEquals(signRegexNormalized(json), signCanonicalized(json));
+    }
+
+    private byte[] signRegexNormalized(String body) throws GeneralSecurityException {
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(privateKey);
+        signature.update(body.replaceAll("[\\n\\r\\t ]", "").getBytes(StandardCharsets.UTF_8));
+        return signature.sign();
+    }
+
+    private byte[] signCanonicalized(String body) throws GeneralSecurityException {
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(privateKey);
+        BodyCanonicalizer.update(signature, body.getBytes(StandardCharsets.UTF_8));
+        return signature.sign();
+    }
+}
@@ -0,0 +1,89 @@
+package ch.admin.bag.covidcertificate.gateway.filters;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CachedBodyHttpServletRequestTest {
+
+    private static final byte[] BODY = "{\"uvci\":\"urn:uvci:01:CH:1234\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void getCachedBody_returnsOnlyTheBody_ofAReusedBuffer() throws IOException {
+        BodyBufferPool bodyBufferPool = new BodyBufferPool(256, 1);
+        byte[] buffer = bodyBufferPool.acquire(0);
+        buffer[BODY.length] = 'x';
+        bodyBufferPool.release(buffer);
+
+        CachedBodyHttpServletRequest request = new CachedBodyHttpServletRequest(request(BODY), bodyBufferPool, 4096);
+
+        assertArrayEquals(BODY, request.getCachedBody());
+        request.withCachedBody((body, length) -> {
+            assertSame(buffer, body);
+            assertEquals(BODY.length, length);
+            return null;
+        });
+    }
+
+    @Test
+    void keepsBufferOfContentLength_ifBodyFillsIt() throws IOException {
+        BodyBufferPool bodyBufferPool = new BodyBufferPool(8, 1);
+
+        CachedBodyHttpServletRequest request = new CachedBodyHttpServletRequest(request(BODY), bodyBufferPool, 4096);
+
+        request.withCachedBody((body, length) -> {
+            assertEquals(BODY.length, body.length);
+            return null;
+        });
+        assertArrayEquals(BODY, request.getCachedBody());
+    }
+
+    @Test
+    void growsBuffer_ifBodyExceedsIt() throws IOException {
+        MockHttpServletRequest httpServletRequest = requestWithoutContentLength(BODY);
+
+        CachedBodyHttpServletRequest request = new CachedBodyHttpServletRequest(httpServletRequest, new BodyBufferPool(8, 1), 4096);
+
+        assertArrayEquals(BODY, request.getCachedBody());
+    }
+
+    @Test
+    void acceptsBody_ofMaxBodySize() throws IOException {
+        CachedBodyHttpServletRequest request = new CachedBodyHttpServletRequest(request(BODY), new BodyBufferPool(8, 1), BODY.length);
+
+        assertArrayEquals(BODY, request.getCachedBody());
+    }
+
+    @Test
+    void rejectsBody_exceedingMaxBodySize_withoutContentLength() {
+        MockHttpServletRequest httpServletRequest = requestWithoutContentLength(BODY);
+        BodyBufferPool bodyBufferPool = new BodyBufferPool(8, 1);
+
+        assertThrows(PayloadTooLargeException.class,
+                () -> new CachedBodyHttpServletRequest(httpServletRequest, bodyBufferPool, BODY.length - 1));
+    }
+
+    private static MockHttpServletRequest requestWithoutContentLength(byte[] body) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/v1/covidcertificate/vaccination") {
+            @Override
+            public long getContentLengthLong() {
+                return -1;
+            }
+        };
+        request.setContent(body);
+        return request;
+    }
+
+    private static MockHttpServletRequest request(byte[] body) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/v1/covidcertificate/vaccination");
+        request.setContent(body);
+        return request;
+    }
+}
@@ -0,0 +1,76 @@
+package ch.admin.bag.covidcertificate.gateway.filters;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CachedBodyServletInputStreamTest {
+
+    private final byte[] buffer = "{\"uvci\":\"urn:uvci:01:CH:1234\"}unused".getBytes(StandardCharsets.UTF_8);
+    private final int length = buffer.length - "unused".length();
+
+    @Test
+    void readsOnlyCachedBodyLength_withBulkRead() {
+        CachedBodyServletInputStream inputStream = new CachedBodyServletInputStream(buffer, length);
+        byte[] target = new byte[buffer.length];
+
+        assertEquals(length, inputStream.available());
+        assertEquals(10, inputStream.read(target, 0, 10));
+        assertEquals(length - 10, inputStream.read(target, 10, target.length - 10));
+        assertEquals(-1, inputStream.read(target, 0, target.length));
+        assertTrue(inputStream.isFinished());
+    }
+
+    @Test
+    void readsNothing_withZeroLength_evenAtEndOfBody() {
+        CachedBodyServletInputStream inputStream = new CachedBodyServletInputStream(buffer, length);
+        byte[] target = new byte[buffer.length];
+
+        assertEquals(0, inputStream.read(target, 0, 0));
+        inputStream.readAllBytes();
+        assertEquals(0, inputStream.read(target, 0, 0));
+        assertEquals(-1, inputStream.read(target, 0, 1));
+    }
+
+    @Test
+    void transferTo_rejectsNullStream() {
+        CachedBodyServletInputStream inputStream = new CachedBodyServletInputStream(buffer, length);
+
+        assertThrows(NullPointerException.class, () -> inputStream.transferTo(null));
+    }
+
+    @Test
+    void readAllBytes_returnsRemainingBody() {
+        CachedBodyServletInputStream inputStream = new CachedBodyServletInputStream(buffer, length);
+
+        assertEquals('{', inputStream.read());
+        byte[] rest = inputStream.readAllBytes();
+
+        assertEquals(length - 1, rest.length);
+        assertEquals(0, inputStream.available());
+        assertEquals(-1, inputStream.read());
+    }
+
+    @Test
+    void transferTo_writesRemainingBody() throws IOException {
+        CachedBodyServletInputStream inputStream = new CachedBodyServletInputStream(buffer, length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(2, inputStream.skip(2));
+        assertFalse(inputStream.isFinished());
+        assertEquals(length - 2, inputStream.transferTo(out));
+
+        byte[] expected = new byte[length - 2];
+        System.arraycopy(buffer, 2, expected, 0, expected.length);
+        assertArrayEquals(expected, out.toByteArray());
+        assertTrue(inputStream.isFinished());
+    }
+}
@@ -0,0 +1,80 @@
+package ch.admin.bag.covidcertificate.gateway.filters;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.CertificateException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ClientCertificateCacheTest {
+
+    private static KeyPair keyPair;
+    private static String certificateString;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeAll
+    static void setUpTests() throws NoSuchAlgorithmException, CertificateException, OperatorCreationException {
+        KeyPairGenerator keyPairGen = KeyPairGenerator.getInstance("RSA");
+        keyPairGen.initialize(2048);
+        keyPair = keyPairGen.generateKeyPair();
+        certificateString = CertificateUtil.convertX509ToString(CertificateUtil.getX509Certificate(keyPair));
+    }
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void returnsCachedKey_onSecondCall() throws KeyException {
+        ClientCertificateCache cache = new ClientCertificateCache(10, meterRegistry);
+
+        PublicKey first = cache.getPublicKey(certificateString);
+        PublicKey second = cache.getPublicKey(certificateString);
+
+        assertEquals(keyPair.getPublic(), first);
+        assertSame(first, second);
+        assertEquals(1, counter("miss"));
+        assertEquals(1, counter("hit"));
+    }
+
+    @Test
+    void doesNotCacheKey_ifCertificateIsExpired() throws KeyException {
+        Clock future = Clock.fixed(Instant.now().plus(Duration.ofDays(400)), ZoneOffset.UTC);
+        ClientCertificateCache cache = new ClientCertificateCache(10, meterRegistry, future);
+
+        cache.getPublicKey(certificateString);
+        cache.getPublicKey(certificateString);
+
+        assertEquals(2, counter("miss"));
+        assertEquals(0, counter("hit"));
+    }
+
+    @Test
+    void throwsKeyException_ifHeaderIsNoCertificate() {
+        ClientCertificateCache cache = new ClientCertificateCache(10, meterRegistry);
+
+        assertThrows(KeyException.class, () -> cache.getPublicKey("bm90IGEgY2VydGlmaWNhdGU="));
+        assertThrows(KeyException.class, () -> cache.getPublicKey("not base64"));
+    }
+
+    private double counter(String result) {
+        return meterRegistry.get("cc.api.gateway.integrity.certificate.cache").tag("result", result).counter().count();
+    }
+}
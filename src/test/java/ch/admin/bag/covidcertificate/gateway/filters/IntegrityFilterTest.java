@@ -1,24 +1,42 @@
 package ch.admin.bag.covidcertificate.gateway.filters;
 
+import ch.admin.bag.covidcertificate.gateway.error.ErrorResponseCatalog;
+import ch.admin.bag.covidcertificate.gateway.service.CryptoExecutor;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.bouncycastle.operator.OperatorCreationException;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.DelegatingServletInputStream;
+import org.springframework.mock.web.DelegatingServletOutputStream;
+import org.springframework.mock.web.MockAsyncContext;
 import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 
+import javax.servlet.DispatcherType;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.*;
 import java.security.cert.CertificateException;
 import java.util.Base64;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 class IntegrityFilterTest {
@@ -56,10 +74,11 @@ class IntegrityFilterTest {
             "}";
 
     private IntegrityFilter integrityFilter;
+    private SimpleMeterRegistry meterRegistry;
     private final HttpServletRequest request = mock(HttpServletRequest.class);
     private final HttpServletResponse response = mock(HttpServletResponse.class);
     private final MockFilterChain mockFilterChain = mock(MockFilterChain.class);
-    private final ObjectMapper mockObjectMapper = mock(ObjectMapper.class);
+    private final ErrorResponseCatalog errorResponseCatalog = new ErrorResponseCatalog(new ObjectMapper());
 
     @BeforeAll
     public static void setUpTests() throws NoSuchAlgorithmException, CertificateException, OperatorCreationException {
@@ -74,13 +93,20 @@ class IntegrityFilterTest {
 
     @BeforeEach
     public void setUp() throws IOException {
-        this.integrityFilter = new IntegrityFilter(mockObjectMapper);
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.integrityFilter = new IntegrityFilter(errorResponseCatalog, new ClientCertificateCache(10, new SimpleMeterRegistry()),
+                new BodyBufferPool(256, 2), 4096,
+                new VerifiedSignatureCache(60_000, 10, VerifiedSignatureCache.ReplayPolicy.REJECT, new SimpleMeterRegistry()),
+                new IntegrityStageMetrics(meterRegistry, true),
+                new PinnedClientKeyRegistry(null, false),
+                CryptoExecutor.disabled());
         reset(request, response, mockFilterChain);
 
         // recreate input stream for request
         InputStream inputStream = new ByteArrayInputStream(testJson.getBytes());
         ServletInputStream servletInputStream = new DelegatingServletInputStream(inputStream);
         when(request.getInputStream()).thenReturn(servletInputStream);
+        when(response.getOutputStream()).thenReturn(new DelegatingServletOutputStream(new ByteArrayOutputStream()));
         when(request.getReader()).thenReturn(new BufferedReader(new StringReader(testJson)));
         when(request.getCharacterEncoding()).thenReturn(StandardCharsets.UTF_8.name());
     }
@@ -99,6 +125,199 @@ class IntegrityFilterTest {
         verify(response, never()).setContentType(MediaType.APPLICATION_JSON_VALUE);
     }
 
+    @Test
+    void testStageTimingsRecorded() throws Exception {
+        byte[] signature = getSignature();
+
+        when(request.getHeader(keyHeaderName)).thenReturn(certificateString);
+        when(request.getHeader(hashHeaderName)).thenReturn(Base64.getEncoder().encodeToString(signature));
+
+        integrityFilter.doFilterInternal(request, response, mockFilterChain);
+        for (String stage : new String[]{"decode", "certificate", "canonicalization", "verify"}) {
+            assertEquals(1, meterRegistry.get(IntegrityStageMetrics.METRIC_NAME)
+                    .tag("stage", stage).tag("outcome", "ok").timer().count());
+        }
+        verify(response, times(1)).addHeader(eq(IntegrityStageMetrics.SERVER_TIMING_HEADER), contains("integrity-verify;dur="));
+    }
+
+    @Test
+    void testStageTimingsRecordedAsInvalid() throws Exception {
+        byte[] signature = getSignature("other json", privateKey);
+
+        when(request.getHeader(keyHeaderName)).thenReturn(certificateString);
+        when(request.getHeader(hashHeaderName)).thenReturn(Base64.getEncoder().encodeToString(signature));
+
+        integrityFilter.doFilterInternal(request, response, mockFilterChain);
+        assertEquals(1, meterRegistry.get(IntegrityStageMetrics.METRIC_NAME)
+                .tag("stage", "verify").tag("outcome", "invalid").timer().count());
+        assertEquals(0, meterRegistry.get(IntegrityStageMetrics.METRIC_NAME)
+                .tag("stage", "verify").tag("outcome", "ok").timer().count());
+    }
+
+    @Test
+    void testPinnedKeyUsedWithoutCertificateHeader(@TempDir Path tempDir) throws Exception {
+        Path bundle = tempDir.resolve("pinned.pem");
+        Files.writeString(bundle, "-----BEGIN CERTIFICATE-----\n" + certificateString + "\n-----END CERTIFICATE-----\n");
+        integrityFilter = new IntegrityFilter(errorResponseCatalog, new ClientCertificateCache(10, meterRegistry),
+                new BodyBufferPool(256, 2), 4096,
+                new VerifiedSignatureCache(60_000, 10, VerifiedSignatureCache.ReplayPolicy.REJECT, meterRegistry),
+                new IntegrityStageMetrics(meterRegistry, false),
+                new PinnedClientKeyRegistry(bundle, true),
+                CryptoExecutor.disabled());
+        byte[] signature = getSignature();
+
+        when(request.getHeader("X-Client-DN")).thenReturn("O=*** Crypto., CN=***.com");
+        when(request.getHeader(hashHeaderName)).thenReturn(Base64.getEncoder().encodeToString(signature));
+
+        integrityFilter.doFilterInternal(request, response, mockFilterChain);
+        verify(mockFilterChain, times(1)).doFilter(any(), any());
+        assertEquals(0, meterRegistry.get("cc.api.gateway.integrity.certificate.cache").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void testUnknownClientRejectedIfPinnedKeyRequired(@TempDir Path tempDir) throws Exception {
+        Path bundle = tempDir.resolve("pinned.pem");
+        Files.writeString(bundle, "");
+        integrityFilter = new IntegrityFilter(errorResponseCatalog, new ClientCertificateCache(10, meterRegistry),
+                new BodyBufferPool(256, 2), 4096,
+                new VerifiedSignatureCache(60_000, 10, VerifiedSignatureCache.ReplayPolicy.REJECT, meterRegistry),
+                new IntegrityStageMetrics(meterRegistry, false),
+                new PinnedClientKeyRegistry(bundle, true),
+                CryptoExecutor.disabled());
+        byte[] signature = getSignature();
+
+        when(request.getHeader("X-Client-DN")).thenReturn("CN=unknown");
+        when(request.getHeader(keyHeaderName)).thenReturn(certificateString);
+        when(request.getHeader(hashHeaderName)).thenReturn(Base64.getEncoder().encodeToString(signature));
+
+        integrityFilter.doFilterInternal(request, response, mockFilterChain);
+        verify(mockFilterChain, never()).doFilter(any(), any());
+        verify(response, times(1)).setStatus(HttpStatus.FORBIDDEN.value());
+    }
+
+    @Test
+    void testSignatureVerifiedOnCryptoExecutor() throws Exception {
+        CryptoExecutor cryptoExecutor = new CryptoExecutor(1, 1, meterRegistry);
+        integrityFilter = new IntegrityFilter(errorResponseCatalog, new ClientCertificateCache(10, meterRegistry),
+                new BodyBufferPool(256, 2), 4096,
+                new VerifiedSignatureCache(60_000, 10, VerifiedSignatureCache.ReplayPolicy.ALLOW, meterRegistry),
+                new IntegrityStageMetrics(meterRegistry, false),
+                new PinnedClientKeyRegistry(null, false),
+                cryptoExecutor);
+        MockHttpServletRequest asyncRequest = new MockHttpServletRequest("POST", "/api/v1/covidcertificate/vaccination");
+        asyncRequest.setAsyncSupported(true);
+        asyncRequest.setContent(testJson.getBytes());
+        asyncRequest.addHeader(keyHeaderName, certificateString);
+        asyncRequest.addHeader(hashHeaderName, Base64.getEncoder().encodeToString(getSignature()));
+        MockHttpServletResponse asyncResponse = new MockHttpServletResponse();
+        SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
+        securityContext.setAuthentication(new TestingAuthenticationToken("client", "cert"));
+        SecurityContextHolder.setContext(securityContext);
+
+        try {
+            integrityFilter.doFilter(asyncRequest, asyncResponse, mockFilterChain);
+            verify(mockFilterChain, never()).doFilter(any(), any());
+            MockAsyncContext asyncContext = (MockAsyncContext) asyncRequest.getAsyncContext();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (asyncContext.getDispatchedPath() == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            SecurityContextHolder.clearContext();
+            asyncRequest.setDispatcherType(DispatcherType.ASYNC);
+            doAnswer(invocation -> {
+                assertEquals("client", SecurityContextHolder.getContext().getAuthentication().getName());
+                return null;
+            }).when(mockFilterChain).doFilter(any(), any());
+            integrityFilter.doFilter(asyncRequest, asyncResponse, mockFilterChain);
+
+            verify(mockFilterChain, times(1)).doFilter(any(), any());
+            assertEquals(HttpStatus.OK.value(), asyncResponse.getStatus());
+        } finally {
+            SecurityContextHolder.clearContext();
+            cryptoExecutor.shutdown();
+        }
+    }
+
+    @Test
+    void testErrorOnCryptoExecutorAnsweredWithCatalogError() throws Exception {
+        CryptoExecutor cryptoExecutor = new CryptoExecutor(1, 1, meterRegistry);
+        VerifiedSignatureCache verifiedSignatureCache = mock(VerifiedSignatureCache.class);
+        when(verifiedSignatureCache.key(any(), any(), any(), anyInt())).thenThrow(new IllegalStateException("failure"));
+        integrityFilter = new IntegrityFilter(errorResponseCatalog, new ClientCertificateCache(10, meterRegistry),
+                new BodyBufferPool(256, 2), 4096,
+                verifiedSignatureCache,
+                new IntegrityStageMetrics(meterRegistry, false),
+                new PinnedClientKeyRegistry(null, false),
+                cryptoExecutor);
+        MockHttpServletRequest asyncRequest = new MockHttpServletRequest("POST", "/api/v1/covidcertificate/vaccination");
+        asyncRequest.setAsyncSupported(true);
+        asyncRequest.setContent(testJson.getBytes());
+        asyncRequest.addHeader(keyHeaderName, certificateString);
+        asyncRequest.addHeader(hashHeaderName, Base64.getEncoder().encodeToString(getSignature()));
+        MockHttpServletResponse asyncResponse = new MockHttpServletResponse();
+
+        try {
+            integrityFilter.doFilter(asyncRequest, asyncResponse, mockFilterChain);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (asyncResponse.getContentLength() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            verify(mockFilterChain, never()).doFilter(any(), any());
+            assertEquals(HttpStatus.INTERNAL_SERVER_ERROR.value(), asyncResponse.getStatus());
+            assertTrue(asyncResponse.getContentAsString().contains("499"));
+        } finally {
+            cryptoExecutor.shutdown();
+        }
+    }
+
+    @Test
+    void testReplayedRequestRejected() throws Exception {
+        byte[] signature = getSignature();
+
+        when(request.getHeader(keyHeaderName)).thenReturn(certificateString);
+        when(request.getHeader(hashHeaderName)).thenReturn(Base64.getEncoder().encodeToString(signature));
+
+        integrityFilter.doFilterInternal(request, response, mockFilterChain);
+        when(request.getInputStream()).thenReturn(new DelegatingServletInputStream(new ByteArrayInputStream(testJson.getBytes())));
+        integrityFilter.doFilterInternal(request, response, mockFilterChain);
+
+        verify(mockFilterChain, times(1)).doFilter(any(), any());
+        verify(response, times(1)).setStatus(HttpStatus.CONFLICT.value());
+        assertEquals(1, checks("ok"));
+        assertEquals(1, checks("replayed"));
+        assertEquals(1, meterRegistry.get(IntegrityStageMetrics.METRIC_NAME)
+                .tag("stage", "replay_cache").tag("outcome", "replayed").timer().count());
+    }
+
+    @Test
+    void testVerifiedRequestRecordedAsCached_withoutServerTiming() throws Exception {
+        integrityFilter = new IntegrityFilter(errorResponseCatalog, new ClientCertificateCache(10, meterRegistry),
+                new BodyBufferPool(256, 2), 4096,
+                new VerifiedSignatureCache(60_000, 10, VerifiedSignatureCache.ReplayPolicy.ALLOW, meterRegistry),
+                new IntegrityStageMetrics(meterRegistry, false),
+                new PinnedClientKeyRegistry(null, false),
+                CryptoExecutor.disabled());
+        when(request.getHeader(keyHeaderName)).thenReturn(certificateString);
+        when(request.getHeader(hashHeaderName)).thenReturn(Base64.getEncoder().encodeToString(getSignature()));
+
+        integrityFilter.doFilterInternal(request, response, mockFilterChain);
+        when(request.getInputStream()).thenReturn(new DelegatingServletInputStream(new ByteArrayInputStream(testJson.getBytes())));
+        integrityFilter.doFilterInternal(request, response, mockFilterChain);
+
+        verify(mockFilterChain, times(2)).doFilter(any(), any());
+        assertEquals(1, checks("ok"));
+        assertEquals(1, checks("cached"));
+        assertEquals(1, meterRegistry.get(IntegrityStageMetrics.METRIC_NAME)
+                .tag("stage", "replay_cache").tag("outcome", "cached").timer().count());
+        verify(response, never()).addHeader(eq(IntegrityStageMetrics.SERVER_TIMING_HEADER), any());
+    }
+
+    private double checks(String outcome) {
+        return meterRegistry.get(IntegrityStageMetrics.CHECK_METRIC_NAME).tag("outcome", outcome).counter().count();
+    }
+
     @Test
     void testSignatureValidWindowsWithNewLine() throws Exception {
         String json = "\r" + testJson + "\r";
@@ -215,6 +434,51 @@ class IntegrityFilterTest {
         verify(response, times(3)).setContentType(MediaType.APPLICATION_JSON_VALUE);
     }
 
+    @Test
+    void testContentLengthTooLarge() throws Exception {
+        byte[] signature = getSignature();
+
+        when(request.getHeader(keyHeaderName)).thenReturn(certificateString);
+        when(request.getHeader(hashHeaderName)).thenReturn(Base64.getEncoder().encodeToString(signature));
+        when(request.getContentLengthLong()).thenReturn(4097L);
+
+        integrityFilter.doFilterInternal(request, response, mockFilterChain);
+        verify(request, never()).getInputStream();
+        verify(mockFilterChain, never()).doFilter(any(), any());
+        verify(response, times(1)).setStatus(HttpStatus.PAYLOAD_TOO_LARGE.value());
+        verify(response, times(1)).setContentType(MediaType.APPLICATION_JSON_VALUE);
+    }
+
+    @Test
+    void testBodyTooLargeWithoutContentLength() throws Exception {
+        String json = testJson.repeat(10);
+        byte[] signature = getSignature(json, privateKey);
+
+        when(request.getHeader(keyHeaderName)).thenReturn(certificateString);
+        when(request.getHeader(hashHeaderName)).thenReturn(Base64.getEncoder().encodeToString(signature));
+        when(request.getContentLengthLong()).thenReturn(-1L);
+        when(request.getInputStream()).thenReturn(new DelegatingServletInputStream(new ByteArrayInputStream(json.getBytes())));
+
+        integrityFilter.doFilterInternal(request, response, mockFilterChain);
+        verify(mockFilterChain, never()).doFilter(any(), any());
+        verify(response, times(1)).setStatus(HttpStatus.PAYLOAD_TOO_LARGE.value());
+    }
+
+    @Test
+    void testSignatureValidWithBodyLargerThanPooledBuffer() throws Exception {
+        String json = "[" + testJson + "," + testJson + "]";
+        byte[] signature = getSignature(json, privateKey);
+
+        when(request.getHeader(keyHeaderName)).thenReturn(certificateString);
+        when(request.getHeader(hashHeaderName)).thenReturn(Base64.getEncoder().encodeToString(signature));
+        when(request.getContentLengthLong()).thenReturn(-1L);
+        when(request.getInputStream()).thenReturn(new DelegatingServletInputStream(new ByteArrayInputStream(json.getBytes())));
+
+        integrityFilter.doFilterInternal(request, response, mockFilterChain);
+        verify(mockFilterChain, times(1)).doFilter(any(), any());
+        verify(response, never()).setStatus(HttpStatus.FORBIDDEN.value());
+    }
+
     private byte[] getSignature() throws SignatureException, InvalidKeyException {
         return this.getSignature(testJson, privateKey);
     }
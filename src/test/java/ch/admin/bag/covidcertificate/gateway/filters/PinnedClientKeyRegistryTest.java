@@ -0,0 +1,98 @@
+package ch.admin.bag.covidcertificate.gateway.filters;
+
+import ch.admin.bag.covidcertificate.gateway.filters.PinnedClientKeyRegistry.PinnedKey;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PinnedClientKeyRegistryTest {
+
+    private static final String CLIENT_DN = "C=CA, ST=Ontario, L=Ottawa, O=*** Crypto., OU=Security&Defense, CN=***.com";
+
+    private static KeyPair keyPair;
+    private static Certificate certificate;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void setUpTests() throws GeneralSecurityException, OperatorCreationException {
+        KeyPairGenerator keyPairGen = KeyPairGenerator.getInstance("RSA");
+        keyPairGen.initialize(2048);
+        keyPair = keyPairGen.generateKeyPair();
+        certificate = CertificateUtil.getX509Certificate(keyPair);
+    }
+
+    @Test
+    void findsKeyByCommonNameOfClientDn() throws Exception {
+        PinnedClientKeyRegistry registry = new PinnedClientKeyRegistry(writeBundle("pinned.pem"), false);
+
+        PinnedKey pinnedKey = registry.find(CLIENT_DN);
+
+        assertNotNull(pinnedKey);
+        assertEquals(keyPair.getPublic(), pinnedKey.publicKey());
+        assertEquals(64, pinnedKey.fingerprint().length());
+        assertNull(registry.find("CN=unknown"));
+        assertNull(registry.find(null));
+    }
+
+    @Test
+    void ignoresCertificatesOutsideOfValidity() throws Exception {
+        Clock future = Clock.fixed(Instant.now().plus(Duration.ofDays(400)), ZoneOffset.UTC);
+        PinnedClientKeyRegistry registry = new PinnedClientKeyRegistry(writeBundle("pinned.pem"), false, future);
+
+        assertNull(registry.find(CLIENT_DN));
+    }
+
+    @Test
+    void reloadsChangedBundle_andKeepsKeysIfBundleIsBroken() throws Exception {
+        Path bundle = tempDir.resolve("pinned.pem");
+        Files.writeString(bundle, "");
+        PinnedClientKeyRegistry registry = new PinnedClientKeyRegistry(bundle, false);
+        assertNull(registry.find(CLIENT_DN));
+
+        writeBundle("pinned.pem");
+        Files.setLastModifiedTime(bundle, FileTime.from(Instant.now().plusSeconds(10)));
+        registry.reloadIfModified();
+        assertNotNull(registry.find(CLIENT_DN));
+
+        Files.writeString(bundle, "-----BEGIN CERTIFICATE-----\nbroken\n-----END CERTIFICATE-----\n");
+        Files.setLastModifiedTime(bundle, FileTime.from(Instant.now().plusSeconds(20)));
+        registry.reloadIfModified();
+        assertNotNull(registry.find(CLIENT_DN));
+    }
+
+    @Test
+    void isEmpty_ifNoLocationConfigured() {
+        assertNull(new PinnedClientKeyRegistry(null, false).find(CLIENT_DN));
+    }
+
+    private Path writeBundle(String name) throws IOException, GeneralSecurityException {
+        Path bundle = tempDir.resolve(name);
+        String pem = "-----BEGIN CERTIFICATE-----\n"
+                + Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(certificate.getEncoded())
+                + "\n-----END CERTIFICATE-----\n";
+        Files.writeString(bundle, pem, StandardCharsets.US_ASCII);
+        return bundle;
+    }
+}
@@ -0,0 +1,147 @@
+package ch.admin.bag.covidcertificate.gateway.filters;
+
+import ch.admin.bag.covidcertificate.gateway.filters.VerifiedSignatureCache.ReplayPolicy;
+import ch.admin.bag.covidcertificate.gateway.filters.VerifiedSignatureCache.ReplayedRequestException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VerifiedSignatureCacheTest {
+
+    private static final byte[] BODY = "{\"name\":\"Müller\"}".getBytes(StandardCharsets.UTF_8);
+    private static final Instant NOW = Instant.parse("2021-06-01T10:00:00Z");
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void skipsVerification_ifRequestWasVerifiedWithinWindow() throws ReplayedRequestException {
+        VerifiedSignatureCache cache = cache(ReplayPolicy.ALLOW, NOW);
+        String key = cache.key("cert", "signature", BODY, BODY.length);
+
+        assertFalse(cache.isVerified(key));
+        cache.markVerified(key);
+
+        assertTrue(cache.isVerified(key));
+        assertEquals(1, meterRegistry.get("cc.api.gateway.integrity.verification.saved").counter().count());
+    }
+
+    @Test
+    void verifiesAgain_afterWindowElapsed() throws ReplayedRequestException {
+        MutableClock clock = new MutableClock(NOW);
+        VerifiedSignatureCache cache = new VerifiedSignatureCache(60_000, 10, ReplayPolicy.ALLOW, meterRegistry, clock);
+        String key = cache.key("cert", "signature", BODY, BODY.length);
+        cache.markVerified(key);
+
+        clock.instant = NOW.plus(Duration.ofMinutes(2));
+
+        assertFalse(cache.isVerified(key));
+    }
+
+    @Test
+    void rejectsReplay_ifPolicyIsReject() throws ReplayedRequestException {
+        VerifiedSignatureCache cache = cache(ReplayPolicy.REJECT, NOW);
+        String key = cache.key("cert", "signature", BODY, BODY.length);
+        cache.markVerified(key);
+
+        assertThrows(ReplayedRequestException.class, () -> cache.isVerified(key));
+        assertEquals(1, meterRegistry.get("cc.api.gateway.integrity.replay.rejected").counter().count());
+    }
+
+    @Test
+    void doesNotCache_ifFullOfUnexpiredEntries() throws ReplayedRequestException {
+        VerifiedSignatureCache cache = new VerifiedSignatureCache(60_000, 1, ReplayPolicy.ALLOW, meterRegistry,
+                Clock.fixed(NOW, ZoneOffset.UTC));
+        String first = cache.key("cert", "signature", BODY, BODY.length);
+        String second = cache.key("cert", "other signature", BODY, BODY.length);
+
+        cache.markVerified(first);
+        cache.markVerified(second);
+
+        assertTrue(cache.isVerified(first));
+        assertFalse(cache.isVerified(second));
+    }
+
+    @Test
+    void purgesExpiredEntries_ifFullAndEarliestEntryExpired() throws ReplayedRequestException {
+        MutableClock clock = new MutableClock(NOW);
+        VerifiedSignatureCache cache = new VerifiedSignatureCache(60_000, 1, ReplayPolicy.ALLOW, meterRegistry, clock);
+        String first = cache.key("cert", "signature", BODY, BODY.length);
+        String second = cache.key("cert", "other signature", BODY, BODY.length);
+        cache.markVerified(first);
+        cache.markVerified(second);
+
+        clock.instant = NOW.plus(Duration.ofSeconds(30));
+        cache.markVerified(second);
+        assertFalse(cache.isVerified(second));
+
+        clock.instant = NOW.plus(Duration.ofMinutes(2));
+        cache.markVerified(second);
+        assertTrue(cache.isVerified(second));
+    }
+
+    @Test
+    void countsReplay_ifPolicyIsFlag() throws ReplayedRequestException {
+        VerifiedSignatureCache cache = cache(ReplayPolicy.FLAG, NOW);
+        String key = cache.key("cert", "signature", BODY, BODY.length);
+        cache.markVerified(key);
+
+        assertTrue(cache.isVerified(key));
+        assertEquals(1, meterRegistry.get("cc.api.gateway.integrity.replay.flagged").counter().count());
+    }
+
+    @Test
+    void keyDependsOnHeadersAndBody() {
+        VerifiedSignatureCache cache = cache(ReplayPolicy.ALLOW, NOW);
+        String key = cache.key("cert", "signature", BODY, BODY.length);
+
+        assertEquals(key, cache.key("cert", "signature", BODY, BODY.length));
+        assertNotEquals(key, cache.key("other cert", "signature", BODY, BODY.length));
+        assertNotEquals(key, cache.key("cert", "signature", BODY, BODY.length - 1));
+        assertNotEquals(key, cache.key("certsig", "nature", BODY, BODY.length));
+    }
+
+    private VerifiedSignatureCache cache(ReplayPolicy replayPolicy, Instant now) {
+        return new VerifiedSignatureCache(60_000, 10, replayPolicy, meterRegistry, Clock.fixed(now, ZoneOffset.UTC));
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant instant;
+
+        MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
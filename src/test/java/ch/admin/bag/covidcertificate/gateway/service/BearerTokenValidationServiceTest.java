@@ -1,20 +1,34 @@
 package ch.admin.bag.covidcertificate.gateway.service;
 
-import ch.admin.bag.covidcertificate.gateway.domain.OtpRevocation;
 import ch.admin.bag.covidcertificate.gateway.util.CustomTokenProviderUtil;
 import com.flextrade.jfixture.JFixture;
+import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Date;
 import java.util.List;
+import java.util.UUID;
 
 import static ch.admin.bag.covidcertificate.gateway.error.ErrorList.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -23,7 +37,6 @@ class BearerTokenValidationServiceTest {
     static final JFixture fixure = new JFixture();
 
     private static OtpRevocationService otpRevocationService;
-    private static OtpRevocation otpRevocation;
     private static String revokedJti = "RevokedJti";
 
     private final String privateKey = "MIIEvQIBADANBgkqhkiG9w0BAQEFAASCBKcwggSjAgEAAoIBAQCbuDmx93wy1N9SHb2GVbqr6lkJk9jwxwzQlsXVnBdnzRnHaA0MCJRNCtjVy4f0qmAHQk4hMzJHrL57s3hAWVqId6PBQs974JQk6WCJN3/CpPrgkNZeifw6OpmqlcTd6zu5u0MbUs6Mh42j1RlyrO/NFyqL5Eg9hD5YcHt97GfV+nsVJvRgS4wMcu6ouaIUrDt6WZ/o7CC4v0nZeEQleX2gtgMqOSQfWWagu1ZwNQ5Hg4QNP5IysMZC7xzszvdl7W/LMPfAuuZUOg0AJMsAwmZThvxk/9o41SnJl6ed4qlZ4uOEZfBeZ5e0iEkwrAFwSnsyQH0IW3Wr/UskBrAg/x9rAgMBAAECggEAVyw6oDY7gPlKS136y0kSx0rZrVLnD2Ne+SZuebZ4I9PdqpPFOgdTfg2kdYsLARyfxXCI7G0MqLM7r2Q43U0oMV1Iftg37tE6Ha/IKwi2rPBOwYhTeXklijNj8usE2nblaIQ8fP9OQb1gvWZ+aIQHeniNiOKyzj1J6ZiOiV/egRpoT7+3sY6csX6uSO5/0r3rL7TsMgmn/mH4NwHm5UItrGmmKO4LR8cLiOmyfCbB+4/UjXj9JAmZDe7Nn+/W4H4wWWNk8MC79ke/3M5i9EG6hNF3AbRf5R2sMiMW59jN7AeRXGoiCOfrGXWNvE78+Pom2qhbdFFx2djtVK4YbSLVgQKBgQDMqKjlQLqdZ5fo2M49sGVSP1YuUlWbxj4BeJku/ZCO5DzZ4fU3v5VjWztFbhTdPVghbo1tGqEGSFZ/LAO7wWUGu0XKs/r01QACxSNcThB4X3/RjF2rwV+lLgCHoVctIP3roA+tOoszzwNxTqqXd08T8ckiW4+nf8Ft5EtFVvvLJQKBgQDCyKeJ7EcJNusZ2uIQic4gZjgOguXUDACC0Tn5wMyN81niCQugFJzqCkrYJABGPGWNEEFPbYiuSVyxvwZ37Z/Zi+3d+hDL74PLOz24z7CZK253oqFG9k3Ddvnd7bK+ZLt0dYF6t7hNHI4PPs3+Li/D/poIapzfLPCte2HJfyIDTwKBgGtVbTbGqtiQkxAQXKHn2Eu5YfZrQfCvmKdm21fUrjLyqqNOqS+yr6NrHnu8Tv71BDqMY2m8FIVZ/Ns3d0HKHLTaFLFJkS1EZHwPbgsj+elXlI6OwjWo9gOIS8jWKgVGD0W7LV2ZnZXvVQvgyQElFnkMToNRZ9bd3tFGcN+NzgJtAoGBAMETKI8ceCV4HH6aaq8+CeYvrK0lry8LXo5NWoxoQdsLNzNJCA77n7aV0S6CMQtt3rN/Q126E1u/OHSwB3dlQafgfj4kG/YqSpdu93Vz2Xdah7tqpzax+s8f5fnIHf9/1hhQSbIc3kEBZwdRl9q2aX57pq9lDm5iG4e632ld7ZcdAoGAIG6loMn5Qxp6O3DidxuUxkaQXCYM/WHfwp+kP5IRxAtCmb/nldgpebQtngC4vcWXdngRItdh1v9WX6aBWvwLkSdqI2HrL1AGssLvXU50FQGPkQSShXL0cItJg/fDKdP2Aw1+Q8+r2mhfd8TjMAxYgTxuYivck3FPzp2hI99A78I=";
@@ -32,12 +45,14 @@ class BearerTokenValidationServiceTest {
 
     String ipAddress;
 
+    @TempDir
+    Path tempDir;
+
     @BeforeAll
     static void setUp() {
-        otpRevocation = mock(OtpRevocation.class);
         otpRevocationService = mock(OtpRevocationService.class);
-        when(otpRevocation.getJti()).thenReturn(revokedJti);
-        when(otpRevocationService.getOtpRevocations()).thenReturn(List.of(otpRevocation));
+        when(otpRevocationService.isRevoked(revokedJti)).thenReturn(true);
+        when(otpRevocationService.keepsRevocationsFor(any(), any())).thenReturn(true);
     }
 
     @BeforeEach
@@ -45,13 +60,18 @@ class BearerTokenValidationServiceTest {
         this.ipAddress = fixure.create(String.class);
     }
 
+    @AfterEach
+    void resetScopeClaimKey() {
+        ReflectionTestUtils.setField(CustomTokenProviderUtil.class, "SCOPE_CLAIM_KEY", "scope");
+    }
+
     @Test
     void validate_tokenIsOK() throws NoSuchAlgorithmException, InvalidBearerTokenException {
 
         //give
         CustomTokenProviderUtil customTokenProviderUtil = new CustomTokenProviderUtil(5000, privateKey, "test");
 
-        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService);
+        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService, VerifiedTokenCache.disabled(), new JwtVerifierRegistry(null), SecKpiEventSink.disabled());
         ReflectionTestUtils.setField(service, "publicKey", publicKey);
 
         service.init();
@@ -69,7 +89,7 @@ class BearerTokenValidationServiceTest {
         CustomTokenProviderUtil customTokenProviderUtil = new CustomTokenProviderUtil(5000, otherPrivateKey, "test");
         ReflectionTestUtils.setField(CustomTokenProviderUtil.class, "SCOPE_CLAIM_KEY", "invalid");
 
-        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService);
+        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService, VerifiedTokenCache.disabled(), new JwtVerifierRegistry(null), SecKpiEventSink.disabled());
         ReflectionTestUtils.setField(service, "publicKey", publicKey);
 
         service.init();
@@ -86,7 +106,7 @@ class BearerTokenValidationServiceTest {
 
         CustomTokenProviderUtil customTokenProviderUtil = new CustomTokenProviderUtil(5000, otherPrivateKey, "test");
 
-        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService);
+        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService, VerifiedTokenCache.disabled(), new JwtVerifierRegistry(null), SecKpiEventSink.disabled());
         ReflectionTestUtils.setField(service, "publicKey", publicKey);
 
         service.init();
@@ -107,7 +127,7 @@ class BearerTokenValidationServiceTest {
 
         CustomTokenProviderUtil customTokenProviderUtil = new CustomTokenProviderUtil(0, otherPrivateKey, "test");
 
-        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService);
+        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService, VerifiedTokenCache.disabled(), new JwtVerifierRegistry(null), SecKpiEventSink.disabled());
         ReflectionTestUtils.setField(service, "publicKey", publicKey);
 
         service.init();
@@ -123,7 +143,7 @@ class BearerTokenValidationServiceTest {
         //give
         CustomTokenProviderUtil customTokenProviderUtil = new CustomTokenProviderUtil(5000, privateKey, "test");
 
-        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService);
+        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService, VerifiedTokenCache.disabled(), new JwtVerifierRegistry(null), SecKpiEventSink.disabled());
 
         ReflectionTestUtils.setField(service, "publicKey", publicKey);
 
@@ -139,7 +159,7 @@ class BearerTokenValidationServiceTest {
         //give
         CustomTokenProviderUtil customTokenProviderUtil = new CustomTokenProviderUtil(5000, privateKey, "test");
 
-        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService);
+        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService, VerifiedTokenCache.disabled(), new JwtVerifierRegistry(null), SecKpiEventSink.disabled());
         ReflectionTestUtils.setField(service, "publicKey", publicKey);
 
         service.init();
@@ -164,7 +184,7 @@ class BearerTokenValidationServiceTest {
         //give
         CustomTokenProviderUtil customTokenProviderUtil = new CustomTokenProviderUtil(5000, privateKey, "test");
 
-        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService);
+        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService, VerifiedTokenCache.disabled(), new JwtVerifierRegistry(null), SecKpiEventSink.disabled());
         ReflectionTestUtils.setField(service, "publicKey", publicKey);
 
         service.init();
@@ -174,4 +194,183 @@ class BearerTokenValidationServiceTest {
         InvalidBearerTokenException exception = assertThrows(InvalidBearerTokenException.class, () -> service.validateOtpAndGetAuthData(token, ipAddress));
         assertEquals(INVALID_BEARER, exception.getError());
     }
+
+    @Test
+    void validate_returnsCachedAuthData_onSecondCall() throws NoSuchAlgorithmException, InvalidBearerTokenException {
+        //give
+        CustomTokenProviderUtil customTokenProviderUtil = new CustomTokenProviderUtil(5000, privateKey, "test");
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache(10, Duration.ofMinutes(5), meterRegistry);
+
+        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService, verifiedTokenCache, new JwtVerifierRegistry(null), SecKpiEventSink.disabled());
+        ReflectionTestUtils.setField(service, "publicKey", publicKey);
+
+        service.init();
+
+        String token = customTokenProviderUtil.createToken("test", "test");
+
+        var first = service.validateOtpAndGetAuthData(token, ipAddress);
+        var second = service.validateOtpAndGetAuthData(token, ipAddress);
+
+        assertSame(first, second);
+        assertEquals(1, meterRegistry.get("cc.api.gateway.jwt.cache").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    void invalid_cachedOtpRevoked() throws NoSuchAlgorithmException, InvalidBearerTokenException {
+        //give
+        CustomTokenProviderUtil customTokenProviderUtil = new CustomTokenProviderUtil(5000, privateKey, "test");
+        OtpRevocationService revocationService = mock(OtpRevocationService.class);
+        when(revocationService.keepsRevocationsFor(any(), any())).thenReturn(true);
+        VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache(10, Duration.ofMinutes(5), new SimpleMeterRegistry());
+
+        BearerTokenValidationService service = new BearerTokenValidationService(revocationService, verifiedTokenCache, new JwtVerifierRegistry(null), SecKpiEventSink.disabled());
+        ReflectionTestUtils.setField(service, "publicKey", publicKey);
+
+        service.init();
+
+        String jti = "RevokedAfterValidation";
+        String token = customTokenProviderUtil.createToken("test", "test", jti);
+
+        service.validateOtpAndGetAuthData(token, ipAddress);
+        when(revocationService.isRevoked(jti)).thenReturn(true);
+
+        InvalidBearerTokenException exception = assertThrows(InvalidBearerTokenException.class, () -> service.validateOtpAndGetAuthData(token, ipAddress));
+        assertEquals(INVALID_BEARER, exception.getError());
+    }
+
+    @Test
+    void invalid_revocationLookupFails() throws NoSuchAlgorithmException, InvalidBearerTokenException {
+        //give
+        CustomTokenProviderUtil customTokenProviderUtil = new CustomTokenProviderUtil(5000, privateKey, "test");
+        OtpRevocationService revocationService = mock(OtpRevocationService.class);
+        when(revocationService.keepsRevocationsFor(any(), any())).thenReturn(true);
+        VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache(10, Duration.ofMinutes(5), new SimpleMeterRegistry());
+
+        BearerTokenValidationService service = new BearerTokenValidationService(revocationService, verifiedTokenCache, new JwtVerifierRegistry(null), SecKpiEventSink.disabled());
+        ReflectionTestUtils.setField(service, "publicKey", publicKey);
+
+        service.init();
+
+        String jti = "UnknownRevocation";
+        String token = customTokenProviderUtil.createToken("test", "test", jti);
+        String cachedToken = customTokenProviderUtil.createToken("test", "test", "Cached");
+        service.validateOtpAndGetAuthData(cachedToken, ipAddress);
+        when(revocationService.isRevoked(any())).thenThrow(new DataAccessResourceFailureException("database unavailable"));
+
+        InvalidBearerTokenException exception = assertThrows(InvalidBearerTokenException.class, () -> service.validateOtpAndGetAuthData(token, ipAddress));
+        assertEquals(INVALID_BEARER, exception.getError());
+        exception = assertThrows(InvalidBearerTokenException.class, () -> service.validateOtpAndGetAuthData(cachedToken, ipAddress));
+        assertEquals(INVALID_BEARER, exception.getError());
+    }
+
+    @Test
+    void invalid_rejectedBeforeVerification() throws NoSuchAlgorithmException {
+        //give
+        CustomTokenProviderUtil expiredTokenProvider = new CustomTokenProviderUtil(0, privateKey, "test");
+        CustomTokenProviderUtil customTokenProviderUtil = new CustomTokenProviderUtil(5000, privateKey, "test");
+
+        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService, VerifiedTokenCache.disabled(), new JwtVerifierRegistry(null), SecKpiEventSink.disabled());
+        ReflectionTestUtils.setField(service, "publicKey", publicKey);
+
+        service.init();
+
+        List<String> tokens = List.of(
+                "eyJhbGciOiJSUzI1NiJ9",
+                "eyJhbGciOiJSUzI1NiJ9.not base64.signature",
+                "eyJhbGciOiJSUzI1NiJ9.bm90IGpzb24.signature",
+                expiredTokenProvider.createToken("test", "test"),
+                customTokenProviderUtil.createTokenNotSigned("test", "test"),
+                customTokenProviderUtil.createToken("", "test"),
+                customTokenProviderUtil.createToken("test", "test", revokedJti));
+
+        for (String token : tokens) {
+            InvalidBearerTokenException exception = assertThrows(InvalidBearerTokenException.class, () -> service.validateOtpAndGetAuthData(token, ipAddress));
+            assertEquals(INVALID_BEARER, exception.getError());
+        }
+    }
+
+    @Test
+    void validate_tokenSignedWithKeyOfKid() throws NoSuchAlgorithmException, IOException, InvalidBearerTokenException {
+        //give
+        KeyPairGenerator keyPairGen = KeyPairGenerator.getInstance("RSA");
+        keyPairGen.initialize(2048);
+        KeyPair nextKeyPair = keyPairGen.generateKeyPair();
+        Path jwks = tempDir.resolve("jwks.json");
+        Files.writeString(jwks, JwtVerifierRegistryTest.jwks(JwtVerifierRegistryTest.jwk("next", nextKeyPair)));
+
+        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService, VerifiedTokenCache.disabled(), new JwtVerifierRegistry(jwks), SecKpiEventSink.disabled());
+        ReflectionTestUtils.setField(service, "publicKey", publicKey);
+
+        service.init();
+
+        var authorizationData = service.validateOtpAndGetAuthData(createToken("next", nextKeyPair), ipAddress);
+        assertEquals("test", authorizationData.getUserId());
+
+        String tokenWithoutKid = new CustomTokenProviderUtil(5000, privateKey, "test").createToken("test", "test");
+        service.validateOtpAndGetAuthData(tokenWithoutKid, ipAddress);
+
+        String tokenOfOtherKey = createToken("next", keyPairGen.generateKeyPair());
+        assertThrows(InvalidBearerTokenException.class, () -> service.validateOtpAndGetAuthData(tokenOfOtherKey, ipAddress));
+
+        String tokenOfUnknownKid = createToken("unknown", nextKeyPair);
+        assertThrows(InvalidBearerTokenException.class, () -> service.validateOtpAndGetAuthData(tokenOfUnknownKid, ipAddress));
+    }
+
+    @Test
+    void invalid_cachedTokenOfRemovedKid() throws NoSuchAlgorithmException, IOException, InvalidBearerTokenException {
+        //give
+        KeyPairGenerator keyPairGen = KeyPairGenerator.getInstance("RSA");
+        keyPairGen.initialize(2048);
+        KeyPair compromisedKeyPair = keyPairGen.generateKeyPair();
+        KeyPair nextKeyPair = keyPairGen.generateKeyPair();
+        Path jwks = tempDir.resolve("jwks.json");
+        Files.writeString(jwks, JwtVerifierRegistryTest.jwks(JwtVerifierRegistryTest.jwk("compromised", compromisedKeyPair),
+                JwtVerifierRegistryTest.jwk("next", nextKeyPair)));
+        JwtVerifierRegistry jwtVerifierRegistry = new JwtVerifierRegistry(jwks);
+        VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache(10, Duration.ofMinutes(5), new SimpleMeterRegistry());
+
+        BearerTokenValidationService service = new BearerTokenValidationService(otpRevocationService, verifiedTokenCache, jwtVerifierRegistry, SecKpiEventSink.disabled());
+        ReflectionTestUtils.setField(service, "publicKey", publicKey);
+
+        service.init();
+
+        String token = createToken("compromised", compromisedKeyPair);
+        service.validateOtpAndGetAuthData(token, ipAddress);
+        Files.writeString(jwks, JwtVerifierRegistryTest.jwks(JwtVerifierRegistryTest.jwk("next", nextKeyPair)));
+        jwtVerifierRegistry.reload();
+
+        InvalidBearerTokenException exception = assertThrows(InvalidBearerTokenException.class, () -> service.validateOtpAndGetAuthData(token, ipAddress));
+        assertEquals(INVALID_BEARER, exception.getError());
+    }
+
+    private static String createToken(String kid, KeyPair keyPair) {
+        return Jwts.builder()
+                .setHeaderParam("kid", kid)
+                .setId(UUID.randomUUID().toString())
+                .setExpiration(new Date(System.currentTimeMillis() + 5000))
+                .claim("scope", "covidcertcreation")
+                .claim("userExtId", "test")
+                .claim("idpsource", "test")
+                .claim("typ", "authmachine+jwt")
+                .signWith(keyPair.getPrivate())
+                .compact();
+    }
+
+    @Test
+    void invalid_revocationMayBeDroppedBeforeExpiration() throws NoSuchAlgorithmException {
+        //give
+        CustomTokenProviderUtil customTokenProviderUtil = new CustomTokenProviderUtil(5000, privateKey, "test");
+        OtpRevocationService revocationService = mock(OtpRevocationService.class);
+
+        BearerTokenValidationService service = new BearerTokenValidationService(revocationService, VerifiedTokenCache.disabled(), new JwtVerifierRegistry(null), SecKpiEventSink.disabled());
+        ReflectionTestUtils.setField(service, "publicKey", publicKey);
+
+        service.init();
+
+        String token = customTokenProviderUtil.createToken("test", "test");
+
+        InvalidBearerTokenException exception = assertThrows(InvalidBearerTokenException.class, () -> service.validateOtpAndGetAuthData(token, ipAddress));
+        assertEquals(INVALID_BEARER, exception.getError());
+    }
 }
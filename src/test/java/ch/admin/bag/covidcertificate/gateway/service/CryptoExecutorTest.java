@@ -0,0 +1,78 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CryptoExecutorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CryptoExecutor cryptoExecutor = new CryptoExecutor(1, 1, meterRegistry);
+
+    @AfterEach
+    void tearDown() {
+        cryptoExecutor.shutdown();
+    }
+
+    @Test
+    void runsTasksOnPoolThread() throws Exception {
+        String threadName = cryptoExecutor.call(() -> Thread.currentThread().getName());
+
+        assertTrue(threadName.startsWith(CryptoExecutor.NAME + "-"));
+    }
+
+    @Test
+    void rethrowsExceptionOfTask() {
+        assertThrows(GeneralSecurityException.class, () -> cryptoExecutor.call(() -> {
+            throw new GeneralSecurityException("invalid");
+        }));
+    }
+
+    @Test
+    void runsTaskOnCaller_ifQueueIsFull() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        cryptoExecutor.execute(() -> await(blocked));
+        cryptoExecutor.execute(() -> {
+        });
+
+        String threadName = cryptoExecutor.call(() -> Thread.currentThread().getName());
+        double queued = meterRegistry.get("executor.queued").tag("name", CryptoExecutor.NAME).gauge().value();
+        blocked.countDown();
+
+        assertEquals(Thread.currentThread().getName(), threadName);
+        assertEquals(1, queued);
+        assertEquals(1, meterRegistry.get("cc.api.gateway.crypto.executor.caller.runs").counter().count());
+    }
+
+    @Test
+    void runsTaskOnCaller_ifShutDown() throws Exception {
+        cryptoExecutor.shutdown();
+
+        assertEquals(Thread.currentThread().getName(), cryptoExecutor.call(() -> Thread.currentThread().getName()));
+    }
+
+    @Test
+    void runsTaskOnCaller_ifDisabled() throws Exception {
+        CryptoExecutor disabled = CryptoExecutor.disabled();
+
+        assertFalse(disabled.isEnabled());
+        assertEquals(Thread.currentThread().getName(), disabled.call(() -> Thread.currentThread().getName()));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
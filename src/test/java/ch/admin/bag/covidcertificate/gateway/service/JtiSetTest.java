@@ -0,0 +1,77 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JtiSetTest {
+
+    private final JtiSet set = new JtiSet(0);
+
+    @Test
+    void containsAddedUuids() {
+        List<String> jtis = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            jtis.add(UUID.randomUUID().toString());
+        }
+        jtis.forEach(set::add);
+
+        assertEquals(10_000, set.size());
+        jtis.forEach(jti -> assertTrue(set.contains(jti)));
+        assertFalse(set.contains(UUID.randomUUID().toString()));
+        assertFalse(set.add(jtis.get(0)));
+    }
+
+    @Test
+    void matchesOtherJtisExactly() {
+        String jti = "3f0e6f4e-8a4c-4c3f-9a7e-0c2a1d5b6e7f";
+        set.add(jti);
+        set.add("not-a-uuid");
+        set.add("00000000-0000-0000-0000-000000000000");
+
+        assertTrue(set.contains(jti));
+        assertTrue(set.contains("not-a-uuid"));
+        assertTrue(set.contains("00000000-0000-0000-0000-000000000000"));
+        // the same UUID in other forms
+        assertFalse(set.contains(jti.toUpperCase()));
+        assertFalse(set.contains("3f0e6f4e-8a4c-4c3f-9a7e-c2a1d5b6e7f"));
+        assertFalse(set.contains(null));
+        assertEquals(3, set.size());
+    }
+
+    @Test
+    void lookupsRunConcurrentlyToTheWriter() throws InterruptedException {
+        String revoked = UUID.randomUUID().toString();
+        set.add(revoked);
+        AtomicBoolean missed = new AtomicBoolean();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            started.countDown();
+            while (writing.get()) {
+                if (!set.contains(revoked)) {
+                    missed.set(true);
+                }
+            }
+        });
+        reader.start();
+        started.await();
+
+        // grows the table several times
+        for (int i = 0; i < 100_000; i++) {
+            set.add(UUID.randomUUID().toString());
+        }
+        writing.set(false);
+        reader.join();
+
+        assertFalse(missed.get());
+    }
+}
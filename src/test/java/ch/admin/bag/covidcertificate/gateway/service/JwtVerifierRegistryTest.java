@@ -0,0 +1,93 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JwtVerifierRegistryTest {
+
+    private static KeyPair currentKeyPair;
+    private static KeyPair nextKeyPair;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void setUpTests() throws NoSuchAlgorithmException {
+        KeyPairGenerator keyPairGen = KeyPairGenerator.getInstance("RSA");
+        keyPairGen.initialize(2048);
+        currentKeyPair = keyPairGen.generateKeyPair();
+        nextKeyPair = keyPairGen.generateKeyPair();
+    }
+
+    @Test
+    void findsParserByKid() throws IOException {
+        Path jwks = tempDir.resolve("jwks.json");
+        Files.writeString(jwks, jwks(jwk("current", currentKeyPair), jwk("next", nextKeyPair),
+                "{\"kty\":\"EC\",\"kid\":\"ec\",\"crv\":\"P-256\"}"));
+        JwtVerifierRegistry registry = new JwtVerifierRegistry(jwks);
+
+        String token = Jwts.builder().setSubject("test").signWith(nextKeyPair.getPrivate()).compact();
+
+        assertEquals("test", registry.find("next").parseClaimsJws(token).getBody().getSubject());
+        assertThrows(Exception.class, () -> registry.find("current").parseClaimsJws(token));
+        assertNull(registry.find("ec"));
+        assertNull(registry.find("unknown"));
+        assertNull(registry.find(null));
+    }
+
+    @Test
+    void reloadsChangedJwks_andKeepsKeysIfJwksIsBroken() throws IOException {
+        Path jwks = tempDir.resolve("jwks.json");
+        Files.writeString(jwks, jwks(jwk("current", currentKeyPair)));
+        JwtVerifierRegistry registry = new JwtVerifierRegistry(jwks);
+        assertNull(registry.find("next"));
+
+        Files.writeString(jwks, jwks(jwk("current", currentKeyPair), jwk("next", nextKeyPair)));
+        Files.setLastModifiedTime(jwks, FileTime.from(Instant.now().plusSeconds(10)));
+        registry.reloadIfModified();
+        assertNotNull(registry.find("current"));
+        assertNotNull(registry.find("next"));
+
+        Files.writeString(jwks, "{\"keys\":[{\"kty\":\"RSA\",\"kid\":\"broken\"}]}");
+        Files.setLastModifiedTime(jwks, FileTime.from(Instant.now().plusSeconds(20)));
+        registry.reloadIfModified();
+        assertNotNull(registry.find("next"));
+        assertNull(registry.find("broken"));
+    }
+
+    @Test
+    void isEmpty_withoutLocation() {
+        assertTrue(new JwtVerifierRegistry(null).isEmpty());
+    }
+
+    static String jwks(String... jwks) {
+        return "{\"keys\":[" + String.join(",", jwks) + "]}";
+    }
+
+    static String jwk(String kid, KeyPair keyPair) {
+        RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return "{\"kty\":\"RSA\",\"use\":\"sig\",\"kid\":\"" + kid + "\",\"n\":\""
+                + encoder.encodeToString(publicKey.getModulus().toByteArray()) + "\",\"e\":\""
+                + encoder.encodeToString(publicKey.getPublicExponent().toByteArray()) + "\"}";
+    }
+}
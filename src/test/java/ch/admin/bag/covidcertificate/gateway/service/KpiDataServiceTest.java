@@ -1,6 +1,9 @@
 package ch.admin.bag.covidcertificate.gateway.service;
 
-import ch.admin.bag.covidcertificate.gateway.domain.KpiDataRepository;
+import ch.admin.bag.covidcertificate.gateway.domain.KpiData;
+import ch.admin.bag.covidcertificate.gateway.domain.KpiDataBatchRepository;
+import ch.admin.bag.covidcertificate.gateway.domain.KpiRollupCount;
+import ch.admin.bag.covidcertificate.gateway.domain.KpiRollupRepository;
 import lombok.RequiredArgsConstructor;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -9,13 +12,10 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
 import static ch.admin.bag.covidcertificate.gateway.Constants.KPI_COMMON_NAME_TYPE;
-import static org.junit.jupiter.api.Assertions.assertThrows;
-import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
 @RequiredArgsConstructor
 @ExtendWith(MockitoExtension.class)
@@ -25,39 +25,35 @@ class KpiDataServiceTest {
     private KpiDataService kpiDataService;
 
     @Mock
-    private KpiDataRepository kpiDataRepository;
+    private KpiDataBatchRepository kpiDataBatchRepository;
 
-    @Test
-    void success_saveKpiData_less_Parameter() {
-        kpiDataService.saveKpiData(LocalDateTime.now(), KPI_COMMON_NAME_TYPE, "0815-some_body-PROD");
-
-        verify(kpiDataRepository, atLeast(1)).save(any());
-    }
+    @Mock
+    private KpiRollupRepository kpiRollupRepository;
 
     @Test
-    void fail_saveKpiData_less_Parameter() {
-        when(kpiDataRepository.save(any())).thenThrow(new RuntimeException("mocked runtime exception"));
+    void success_saveKpiData_batch() {
+        var kpiData = List.of(KpiData.builder().timestamp(LocalDateTime.now()).type(KPI_COMMON_NAME_TYPE).value("0815-some_body-PROD").build());
 
-        assertThrows(RuntimeException.class, () -> {
-            kpiDataService.saveKpiData(LocalDateTime.now(), KPI_COMMON_NAME_TYPE, "0815-some_body-PROD");
-        });
+        kpiDataService.saveKpiData(kpiData);
+
+        verify(kpiDataBatchRepository).insertAll(kpiData);
     }
 
     @Test
-    void success_saveKpiData_more_Parameter() {
-        // type ad was written until 17.10.2022, that means method still there but unused
-        kpiDataService.saveKpiData(LocalDateTime.now(), "ad", "4376224", "urn:uvci:01:CH:4757BD5A07E7A255B7139C8C", "rapid", "CH");
+    void success_replayKpiData() {
+        var kpiData = List.of(KpiData.builder().timestamp(LocalDateTime.now()).type(KPI_COMMON_NAME_TYPE).value("0815-some_body-PROD").build());
+
+        kpiDataService.replayKpiData(kpiData);
 
-        verify(kpiDataRepository, atLeast(1)).save(any());
+        verify(kpiDataBatchRepository).insertMissing(kpiData);
     }
 
     @Test
-    void fail_saveKpiData_more_Parameter() {
-        when(kpiDataRepository.save(any())).thenThrow(new RuntimeException("mocked runtime exception"));
-        // type ad was written until 17.10.2022, that means method still there but unused
+    void success_saveKpiRollup() {
+        var counts = List.of(new KpiRollupCount(LocalDateTime.now(), KPI_COMMON_NAME_TYPE, "0815-some_body-PROD", 3));
+
+        kpiDataService.saveKpiRollup(counts);
 
-        assertThrows(RuntimeException.class, () -> {
-            kpiDataService.saveKpiData(LocalDateTime.now(), "ad", "4376224", "urn:uvci:01:CH:4757BD5A07E7A255B7139C8C", "rapid", "CH");
-        });
+        verify(kpiRollupRepository).insertAll(counts);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,157 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import ch.admin.bag.covidcertificate.gateway.domain.KpiData;
+import ch.admin.bag.covidcertificate.gateway.domain.KpiRollupCount;
+import ch.admin.bag.covidcertificate.gateway.service.KpiDataWriter.BackpressurePolicy;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static ch.admin.bag.covidcertificate.gateway.Constants.KPI_COMMON_NAME_TYPE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class KpiDataWriterTest {
+
+    private final KpiDataService kpiDataService = mock(KpiDataService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void writesEventsInBatches() throws InterruptedException {
+        List<Integer> batchSizes = new ArrayList<>();
+        CountDownLatch blocked = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            batchSizes.add(invocation.<List<KpiData>>getArgument(0).size());
+            return blocked.await(10, TimeUnit.SECONDS);
+        }).when(kpiDataService).saveKpiData(anyList());
+        KpiDataWriter writer = new KpiDataWriter(kpiDataService, 100, 3, 0, BackpressurePolicy.DROP_NEWEST, KpiSpool.disabled(), 0, KpiRollup.disabled(), meterRegistry);
+
+        submit(writer, 1);
+        verify(kpiDataService, timeout(5_000)).saveKpiData(anyList());
+        submit(writer, 7);
+        blocked.countDown();
+        writer.shutdown();
+
+        assertEquals(List.of(1, 3, 3, 1), batchSizes);
+        assertEquals(8, meterRegistry.get("cc.api.gateway.kpi.writer.flushed").counter().count());
+    }
+
+    @Test
+    void dropsNewestEvents_ifQueueIsFull() throws InterruptedException {
+        CountDownLatch blocked = blockFirstFlush();
+        KpiDataWriter writer = new KpiDataWriter(kpiDataService, 2, 1, 0, BackpressurePolicy.DROP_NEWEST, KpiSpool.disabled(), 0, KpiRollup.disabled(), meterRegistry);
+
+        submit(writer, 1);
+        verify(kpiDataService, timeout(5_000)).saveKpiData(anyList());
+        submit(writer, 5);
+        blocked.countDown();
+        writer.shutdown();
+
+        assertEquals(3, meterRegistry.get("cc.api.gateway.kpi.writer.dropped").counter().count());
+        assertEquals(3, meterRegistry.get("cc.api.gateway.kpi.writer.flushed").counter().count());
+    }
+
+    @Test
+    void writesOnCaller_ifQueueIsFull() throws InterruptedException {
+        CountDownLatch blocked = blockFirstFlush();
+        KpiDataWriter writer = new KpiDataWriter(kpiDataService, 1, 1, 0, BackpressurePolicy.CALLER_RUNS, KpiSpool.disabled(), 0, KpiRollup.disabled(), meterRegistry);
+
+        submit(writer, 1);
+        verify(kpiDataService, timeout(5_000)).saveKpiData(anyList());
+        submit(writer, 2);
+        blocked.countDown();
+        writer.shutdown();
+
+        assertEquals(1, meterRegistry.get("cc.api.gateway.kpi.writer.caller.runs").counter().count());
+        assertEquals(3, meterRegistry.get("cc.api.gateway.kpi.writer.flushed").counter().count());
+        assertEquals(0, meterRegistry.get("cc.api.gateway.kpi.writer.dropped").counter().count());
+    }
+
+    @Test
+    void countsFailedEvents() throws InterruptedException {
+        doAnswer(invocation -> {
+            throw new IllegalStateException("database down");
+        }).when(kpiDataService).saveKpiData(anyList());
+        KpiDataWriter writer = new KpiDataWriter(kpiDataService, 10, 10, 0, BackpressurePolicy.DROP_NEWEST, KpiSpool.disabled(), 0, KpiRollup.disabled(), meterRegistry);
+
+        submit(writer, 2);
+        writer.shutdown();
+
+        verify(kpiDataService, atLeastOnce()).saveKpiData(anyList());
+        assertEquals(2, meterRegistry.get("cc.api.gateway.kpi.writer.failed").counter().count());
+    }
+
+    @Test
+    void spoolsFailedEvents_andReplaysThem(@TempDir Path spoolDirectory) throws Exception {
+        doAnswer(invocation -> {
+            throw new IllegalStateException("database down");
+        }).when(kpiDataService).saveKpiData(anyList());
+        KpiSpool spool = new KpiSpool(spoolDirectory, 4096, 4, meterRegistry);
+        KpiDataWriter writer = new KpiDataWriter(kpiDataService, 10, 10, 0, BackpressurePolicy.SPOOL, spool, 0, KpiRollup.disabled(), meterRegistry);
+
+        submit(writer, 2);
+        // the events are flushed, spooled and replayed in one or two batches
+        Counter replayed = meterRegistry.get("cc.api.gateway.kpi.writer.replayed").counter();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (replayed.count() < 2 && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+        writer.shutdown();
+
+        assertEquals(2, meterRegistry.get("cc.api.gateway.kpi.writer.spooled").counter().count());
+        assertEquals(2, meterRegistry.get("cc.api.gateway.kpi.writer.replayed").counter().count());
+        assertEquals(0, meterRegistry.get("cc.api.gateway.kpi.writer.failed").counter().count());
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    void writesRollupCountsInsteadOfRawEvents() throws InterruptedException {
+        KpiRollup rollup = new KpiRollup(false, meterRegistry);
+        KpiDataWriter writer = new KpiDataWriter(kpiDataService, 10, 10, 0, BackpressurePolicy.DROP_NEWEST, KpiSpool.disabled(), 0, rollup, meterRegistry);
+
+        submit(writer, 2);
+        submit(writer, 1);
+        writer.shutdown();
+
+        verify(kpiDataService).saveKpiRollup(argThat(counts -> counts.stream().mapToLong(KpiRollupCount::count).sum() == 3));
+        verify(kpiDataService, never()).saveKpiData(anyList());
+    }
+
+    @Test
+    void spoolPolicyRequiresSpool() {
+        KpiSpool spool = KpiSpool.disabled();
+        assertThrows(IllegalArgumentException.class,
+                () -> new KpiDataWriter(kpiDataService, 10, 10, 0, BackpressurePolicy.SPOOL, spool, 0, KpiRollup.disabled(), meterRegistry));
+    }
+
+    private CountDownLatch blockFirstFlush() {
+        CountDownLatch blocked = new CountDownLatch(1);
+        doAnswer(invocation -> blocked.await(10, TimeUnit.SECONDS))
+                .doNothing()
+                .when(kpiDataService).saveKpiData(anyList());
+        return blocked;
+    }
+
+    private static void submit(KpiDataWriter writer, int count) {
+        for (int i = 0; i < count; i++) {
+            writer.submit(LocalDateTime.now(), KPI_COMMON_NAME_TYPE, "client-" + i);
+        }
+    }
+}
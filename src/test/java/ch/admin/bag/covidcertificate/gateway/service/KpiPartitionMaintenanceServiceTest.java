@@ -0,0 +1,107 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import ch.admin.bag.covidcertificate.gateway.domain.KpiPartitionRepository;
+import ch.admin.bag.covidcertificate.gateway.domain.KpiPartitionRepository.KpiPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class KpiPartitionMaintenanceServiceTest {
+
+    private static final YearMonth CURRENT_MONTH = YearMonth.of(2026, 10);
+    private static final KpiPartition LEGACY = new KpiPartition("kpi_legacy", LocalDateTime.of(2026, 2, 1, 0, 0));
+    private static final KpiPartition MARCH = new KpiPartition("kpi_2026_03", LocalDateTime.of(2026, 4, 1, 0, 0));
+    private static final KpiPartition APRIL = new KpiPartition("kpi_2026_04", LocalDateTime.of(2026, 5, 1, 0, 0));
+    private static final KpiPartition NOVEMBER = new KpiPartition("kpi_2026_11", LocalDateTime.of(2026, 12, 1, 0, 0));
+    private static final KpiPartition DEFAULT = new KpiPartition("kpi_default", null);
+
+    @InjectMocks
+    private KpiPartitionMaintenanceService kpiPartitionMaintenanceService;
+
+    @Mock
+    private KpiPartitionRepository kpiPartitionRepository;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(kpiPartitionMaintenanceService, "monthsAhead", 3);
+    }
+
+    @Test
+    void createsPartitionsAfterTheLastOneUpToMonthsAhead() {
+        when(kpiPartitionRepository.tryLock()).thenReturn(true);
+        when(kpiPartitionRepository.findPartitions()).thenReturn(List.of(LEGACY, NOVEMBER));
+
+        kpiPartitionMaintenanceService.maintainPartitions(CURRENT_MONTH);
+
+        verify(kpiPartitionRepository).createPartition(YearMonth.of(2026, 12));
+        verify(kpiPartitionRepository).createPartition(YearMonth.of(2027, 1));
+        verify(kpiPartitionRepository, never()).dropPartition(any());
+    }
+
+    @Test
+    void createsMissedPartitions_fromTheCurrentMonthWithoutPartitions() {
+        when(kpiPartitionRepository.tryLock()).thenReturn(true);
+        when(kpiPartitionRepository.findPartitions()).thenReturn(List.of());
+
+        kpiPartitionMaintenanceService.maintainPartitions(CURRENT_MONTH);
+
+        verify(kpiPartitionRepository).createPartition(YearMonth.of(2026, 10));
+        verify(kpiPartitionRepository).createPartition(YearMonth.of(2027, 1));
+    }
+
+    @Test
+    void dropsPartitionsEntirelyBeforeTheRetention() {
+        ReflectionTestUtils.setField(kpiPartitionMaintenanceService, "retentionMonths", 6);
+        when(kpiPartitionRepository.tryLock()).thenReturn(true);
+        when(kpiPartitionRepository.findPartitions()).thenReturn(List.of(LEGACY, MARCH, APRIL, NOVEMBER));
+
+        kpiPartitionMaintenanceService.maintainPartitions(CURRENT_MONTH);
+
+        verify(kpiPartitionRepository).dropPartition(LEGACY);
+        verify(kpiPartitionRepository).dropPartition(MARCH);
+        verify(kpiPartitionRepository, never()).dropPartition(APRIL);
+    }
+
+    @Test
+    void keepsDefaultPartition() {
+        ReflectionTestUtils.setField(kpiPartitionMaintenanceService, "retentionMonths", 6);
+        when(kpiPartitionRepository.tryLock()).thenReturn(true);
+        when(kpiPartitionRepository.findPartitions()).thenReturn(List.of(LEGACY, APRIL, DEFAULT));
+
+        kpiPartitionMaintenanceService.maintainPartitions(CURRENT_MONTH);
+
+        verify(kpiPartitionRepository).createPartition(YearMonth.of(2026, 5));
+        verify(kpiPartitionRepository, never()).dropPartition(DEFAULT);
+    }
+
+    @Test
+    void doesNothing_whenAnotherInstanceHoldsTheLock() {
+        when(kpiPartitionRepository.tryLock()).thenReturn(false);
+
+        kpiPartitionMaintenanceService.maintainPartitions(CURRENT_MONTH);
+
+        verifyNoMoreInteractions(kpiPartitionRepository);
+    }
+
+    @Test
+    void doesNothing_whenDisabled() {
+        kpiPartitionMaintenanceService.maintainPartitions();
+
+        verifyNoMoreInteractions(kpiPartitionRepository);
+    }
+}
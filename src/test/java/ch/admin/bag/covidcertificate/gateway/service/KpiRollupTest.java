@@ -0,0 +1,111 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import ch.admin.bag.covidcertificate.gateway.domain.KpiRollupCount;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KpiRollupTest {
+
+    private static final LocalDateTime MINUTE = LocalDateTime.of(2026, 10, 17, 10, 15);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final KpiRollup rollup = new KpiRollup(false, meterRegistry);
+
+    @Test
+    void countsPerMinuteTypeAndValue() {
+        rollup.increment(MINUTE.plusSeconds(1), "cn", "client-a");
+        rollup.increment(MINUTE.plusSeconds(59), "cn", "client-a");
+        rollup.increment(MINUTE.plusSeconds(30), "cn", "client-b");
+        rollup.increment(MINUTE.plusMinutes(1), "cn", "client-a");
+
+        List<KpiRollupCount> counts = rollup.drainAll();
+
+        assertEquals(3, counts.size());
+        assertTrue(counts.contains(new KpiRollupCount(MINUTE, "cn", "client-a", 2)));
+        assertTrue(counts.contains(new KpiRollupCount(MINUTE, "cn", "client-b", 1)));
+        assertTrue(counts.contains(new KpiRollupCount(MINUTE.plusMinutes(1), "cn", "client-a", 1)));
+    }
+
+    @Test
+    void countsConcurrentIncrements() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            executor.execute(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    rollup.increment(MINUTE, "cn", "client-" + (j % 2));
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(80_000, rollup.drainAll().stream().mapToLong(KpiRollupCount::count).sum());
+    }
+
+    @Test
+    void losesNoIncrements_whileDraining() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            executor.execute(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    rollup.increment(MINUTE, "cn", "client-a");
+                    if (j % 100 == 0) {
+                        Thread.yield();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        long drained = 0;
+        while (!executor.isTerminated()) {
+            drained += rollup.drainAll().stream().mapToLong(KpiRollupCount::count).sum();
+            Thread.yield();
+        }
+        drained += rollup.drainAll().stream().mapToLong(KpiRollupCount::count).sum();
+
+        assertEquals(40_000, drained);
+    }
+
+    @Test
+    void removesCounters_onceDrainedWithoutNewEvents() {
+        rollup.increment(MINUTE, "cn", "client-a");
+        assertEquals(List.of(new KpiRollupCount(MINUTE, "cn", "client-a", 1)), rollup.drainAll());
+        assertEquals(1, meterRegistry.get("cc.api.gateway.kpi.rollup.counters").gauge().value());
+
+        assertEquals(List.of(), rollup.drainAll());
+
+        assertEquals(0, meterRegistry.get("cc.api.gateway.kpi.rollup.counters").gauge().value());
+    }
+
+    @Test
+    void drainsCompletedMinutesAfterTheGracePeriod() {
+        rollup.increment(MINUTE.plusSeconds(10), "cn", "client-a");
+        rollup.increment(MINUTE.plusMinutes(1), "cn", "client-a");
+
+        assertEquals(List.of(), rollup.drainCompleted(MINUTE.plusMinutes(1).plusSeconds(2)));
+        assertEquals(List.of(new KpiRollupCount(MINUTE, "cn", "client-a", 1)),
+                rollup.drainCompleted(MINUTE.plusMinutes(1).plusSeconds(10)));
+        assertEquals(List.of(new KpiRollupCount(MINUTE.plusMinutes(1), "cn", "client-a", 1)), rollup.drainAll());
+    }
+
+    @Test
+    void restoredCountsAreDrainedWithTheNextCompletedMinute() {
+        rollup.increment(MINUTE, "cn", "client-a");
+        List<KpiRollupCount> counts = rollup.drainCompleted(MINUTE.plusMinutes(1).plusSeconds(10));
+        rollup.restore(counts);
+        rollup.increment(MINUTE, "cn", "client-a");
+
+        assertEquals(List.of(), rollup.drainCompleted(MINUTE.plusMinutes(1).plusSeconds(20)));
+        assertEquals(List.of(new KpiRollupCount(MINUTE, "cn", "client-a", 2)),
+                rollup.drainCompleted(MINUTE.plusMinutes(2).plusSeconds(10)));
+    }
+}
@@ -0,0 +1,150 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import ch.admin.bag.covidcertificate.gateway.domain.KpiData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KpiSpoolTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysAppendedEvents() throws IOException {
+        KpiSpool spool = new KpiSpool(directory, SEGMENT_SIZE, 4, meterRegistry);
+        UUID id = UUID.randomUUID();
+        LocalDateTime timestamp = LocalDateTime.of(2026, 10, 17, 10, 15, 30, 123456789);
+        spool.append(KpiData.builder().id(id).timestamp(timestamp).type("re").value("4376224")
+                .uvci("urn:uvci:01:CH:4757BD5A07E7A255B7139C8C").country("CH").fraud(true).build());
+        spool.append(event(1));
+
+        List<KpiData> replayed = new ArrayList<>();
+        assertEquals(2, spool.replay(10, replayed::addAll));
+
+        KpiData first = replayed.get(0);
+        assertEquals(id, first.getId());
+        assertEquals(timestamp, first.getTimestamp());
+        assertEquals("4376224", first.getValue());
+        assertEquals("urn:uvci:01:CH:4757BD5A07E7A255B7139C8C", first.getUvci());
+        assertNull(first.getDetails());
+        assertTrue(first.isFraud());
+        // events without id get one when they are appended
+        assertNotNull(replayed.get(1).getId());
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    void keepsEvents_ifTheWriterFails() throws IOException {
+        KpiSpool spool = new KpiSpool(directory, SEGMENT_SIZE, 4, meterRegistry);
+        spool.append(event(0));
+
+        assertThrows(IllegalStateException.class, () -> spool.replay(10, kpiData -> {
+            throw new IllegalStateException("database down");
+        }));
+
+        assertEquals(1, spool.pending());
+    }
+
+    @Test
+    void recoversPendingEventsAfterRestart() throws IOException {
+        KpiSpool spool = new KpiSpool(directory, SEGMENT_SIZE, 4, meterRegistry);
+        for (int i = 0; i < 5; i++) {
+            spool.append(event(i));
+        }
+        spool.replay(2, kpiData -> {
+        });
+        spool.close();
+
+        KpiSpool reopened = new KpiSpool(directory, SEGMENT_SIZE, 4, new SimpleMeterRegistry());
+        List<KpiData> replayed = new ArrayList<>();
+        reopened.replay(10, replayed::addAll);
+
+        assertEquals(List.of("client-2", "client-3", "client-4"), replayed.stream().map(KpiData::getValue).toList());
+    }
+
+    @Test
+    void ignoresIncompletelyWrittenEvent() throws IOException {
+        KpiSpool spool = new KpiSpool(directory, SEGMENT_SIZE, 4, meterRegistry);
+        spool.append(event(0));
+        spool.append(event(1));
+        spool.close();
+        try (RandomAccessFile file = new RandomAccessFile(segments().get(0).toFile(), "rw")) {
+            // corrupts the last byte of the second event
+            int secondEventEnd = 8 + 2 * recordSize(event(0));
+            file.seek(secondEventEnd - 1);
+            file.write(0x7F);
+        }
+
+        KpiSpool reopened = new KpiSpool(directory, SEGMENT_SIZE, 4, new SimpleMeterRegistry());
+
+        assertEquals(1, reopened.pending());
+    }
+
+    @Test
+    void rotatesSegments_andDeletesReplayedSegments() throws IOException {
+        KpiSpool spool = new KpiSpool(directory, SEGMENT_SIZE, 4, meterRegistry);
+        int eventsPerSegment = (SEGMENT_SIZE - 8 - 4) / recordSize(event(0));
+        for (int i = 0; i < eventsPerSegment * 2 + 1; i++) {
+            spool.append(event(i));
+        }
+        assertEquals(3, segments().size());
+
+        while (spool.replay(eventsPerSegment, kpiData -> {
+        }) > 0) {
+            // replays all segments
+        }
+
+        assertTrue(spool.isEmpty());
+        assertEquals(1, segments().size());
+    }
+
+    @Test
+    void rejectsEvents_ifAllSegmentsAreFull() throws IOException {
+        KpiSpool spool = new KpiSpool(directory, SEGMENT_SIZE, 1, meterRegistry);
+        int eventsPerSegment = (SEGMENT_SIZE - 8 - 4) / recordSize(event(0));
+        for (int i = 0; i < eventsPerSegment; i++) {
+            spool.append(event(i));
+        }
+
+        KpiData overflow = event(eventsPerSegment);
+        assertThrows(IOException.class, () -> spool.append(overflow));
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static KpiData event(int i) {
+        return KpiData.builder().timestamp(LocalDateTime.now()).type("cn").value("client-" + i).build();
+    }
+
+    /**
+     * length, crc, id, timestamp, six strings, fraud
+     */
+    private static int recordSize(KpiData kpiData) {
+        return 4 + 4 + 16 + 12 + 6 * 4 + kpiData.getType().length() + kpiData.getValue().length() + 1;
+    }
+}
@@ -0,0 +1,80 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OtpRevocationListenerTest {
+
+    private final DataSource dataSource = mock(DataSource.class);
+    private final Connection connection = mock(Connection.class);
+    private final PGConnection pgConnection = mock(PGConnection.class);
+    private final Statement statement = mock(Statement.class);
+    private final OtpRevocationService otpRevocationService = mock(OtpRevocationService.class);
+    private OtpRevocationListener listener;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        listener.shutdown();
+    }
+
+    @Test
+    void addsNotifiedJtis() throws SQLException {
+        mockConnection();
+        PGNotification notification = mock(PGNotification.class);
+        when(notification.getParameter()).thenReturn("jti-1");
+        when(pgConnection.getNotifications(anyInt())).thenReturn(new PGNotification[]{notification}, (PGNotification[]) null);
+
+        listener = new OtpRevocationListener(dataSource, otpRevocationService, 10, new SimpleMeterRegistry());
+
+        verify(statement, timeout(5_000)).execute("LISTEN " + OtpRevocationListener.CHANNEL);
+        verify(otpRevocationService, timeout(5_000)).addRevokedJti("jti-1");
+    }
+
+    @Test
+    void refreshesAfterReconnecting() throws SQLException {
+        mockConnection();
+        when(pgConnection.getNotifications(anyInt())).thenThrow(new SQLException("connection reset")).thenReturn(null);
+
+        listener = new OtpRevocationListener(dataSource, otpRevocationService, 10, new SimpleMeterRegistry());
+
+        verify(dataSource, timeout(5_000).times(2)).getConnection();
+        verify(otpRevocationService, timeout(5_000).times(2)).refresh();
+    }
+
+    @Test
+    void stopsListening_ifTheDatabaseIsNotPostgreSQL() throws SQLException, InterruptedException {
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.isWrapperFor(PGConnection.class)).thenReturn(false);
+
+        listener = new OtpRevocationListener(dataSource, otpRevocationService, 10, new SimpleMeterRegistry());
+        Thread.sleep(100);
+
+        verify(dataSource, atLeast(1)).getConnection();
+        verify(connection, never()).createStatement();
+        assertFalse(listener.isConnected());
+    }
+
+    private void mockConnection() throws SQLException {
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.isWrapperFor(PGConnection.class)).thenReturn(true);
+        when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+        when(connection.createStatement()).thenReturn(statement);
+    }
+}
@@ -1,25 +1,176 @@
 package ch.admin.bag.covidcertificate.gateway.service;
 
-import ch.admin.bag.covidcertificate.gateway.domain.OtpRevocation;
 import ch.admin.bag.covidcertificate.gateway.domain.OtpRevocationRepository;
+import ch.admin.bag.covidcertificate.gateway.domain.OtpRevocationRepository.RevokedJti;
 import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
 import java.util.List;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class OtpRevocationServiceTest {
 
+    private final OtpRevocationRepository otpRevocationRepository = mock(OtpRevocationRepository.class);
+    private final OtpRevocationService service = new OtpRevocationService(otpRevocationRepository);
+
+    @Test
+    void isRevokedTest() {
+        when(otpRevocationRepository.findAllJtis()).thenReturn(List.of("jti-1", "jti-2"));
+
+        assertTrue(service.isRevoked("jti-1"));
+        assertFalse(service.isRevoked("jti-3"));
+        assertFalse(service.isRevoked(null));
+        // loaded once with the first lookup
+        verify(otpRevocationRepository, times(1)).findAllJtis();
+    }
+
+    @Test
+    void refreshReplacesTheRevokedJtis() {
+        when(otpRevocationRepository.findAllJtis()).thenReturn(List.of("jti-1"), List.of("jti-1", "jti-2"));
+        assertFalse(service.isRevoked("jti-2"));
+
+        service.refresh();
+
+        assertTrue(service.isRevoked("jti-2"));
+    }
+
+    @Test
+    void refreshKeepsTheRevokedJtis_ifLoadingFails() {
+        when(otpRevocationRepository.findAllJtis()).thenReturn(List.of("jti-1"))
+                .thenThrow(new IllegalStateException("database down"));
+        assertTrue(service.isRevoked("jti-1"));
+
+        service.refresh();
+
+        assertTrue(service.isRevoked("jti-1"));
+    }
+
+    @Test
+    void refreshLoadsOnlyTheRevocationsCreatedSinceTheNewestKnownOne() {
+        LocalDateTime latest = LocalDateTime.of(2026, 10, 17, 10, 15);
+        ReflectionTestUtils.setField(service, "fullSyncInterval", Long.MAX_VALUE);
+        ReflectionTestUtils.setField(service, "syncOverlap", 60_000L);
+        when(otpRevocationRepository.findLatestCreatedAt()).thenReturn(latest);
+        when(otpRevocationRepository.findAllJtis()).thenReturn(List.of("jti-1"));
+        List<RevokedJti> firstDelta = List.of(revokedJti("jti-1", latest), revokedJti("jti-2", latest.plusSeconds(30)));
+        List<RevokedJti> secondDelta = List.of(revokedJti("jti-3", latest.plusSeconds(40)));
+        when(otpRevocationRepository.findJtisCreatedSince(latest.minusMinutes(1))).thenReturn(firstDelta);
+        when(otpRevocationRepository.findJtisCreatedSince(latest.plusSeconds(30).minusMinutes(1))).thenReturn(secondDelta);
+        assertFalse(service.isRevoked("jti-2"));
+
+        service.refresh();
+        service.refresh();
+
+        assertTrue(service.isRevoked("jti-1"));
+        assertTrue(service.isRevoked("jti-2"));
+        assertTrue(service.isRevoked("jti-3"));
+        verify(otpRevocationRepository, times(1)).findAllJtis();
+    }
+
+    @Test
+    void refreshReloadsAll_afterTheFullSyncInterval() {
+        ReflectionTestUtils.setField(service, "fullSyncInterval", 0L);
+        when(otpRevocationRepository.findLatestCreatedAt()).thenReturn(LocalDateTime.of(2026, 10, 17, 10, 15));
+        when(otpRevocationRepository.findAllJtis()).thenReturn(List.of("jti-1"), List.of());
+        assertTrue(service.isRevoked("jti-1"));
+
+        service.refresh();
+
+        // a deleted revocation is dropped
+        assertFalse(service.isRevoked("jti-1"));
+        verify(otpRevocationRepository, never()).findJtisCreatedSince(any());
+    }
+
+    @Test
+    void addRevokedJtiAddsToTheLoadedJtis() {
+        when(otpRevocationRepository.findAllJtis()).thenReturn(List.of("jti-1"));
+        assertFalse(service.isRevoked("jti-2"));
+
+        service.addRevokedJti("jti-2");
+
+        assertTrue(service.isRevoked("jti-2"));
+    }
+
+    @Test
+    void loadsOnlyTheRevocationsOfOtpsWithinTheirLifetime() {
+        ReflectionTestUtils.setField(service, "otpLifetime", 3_600_000L);
+        LocalDateTime expected = LocalDateTime.now().minusHours(1);
+        when(otpRevocationRepository.findAllJtisCreatedSince(any())).thenReturn(List.of("jti-1"));
+
+        assertTrue(service.isRevoked("jti-1"));
+
+        verify(otpRevocationRepository).findAllJtisCreatedSince(argThat(since -> !since.isBefore(expected)
+                && since.isBefore(expected.plusMinutes(1))));
+    }
+
+    @Test
+    void deletesTheRevocationsOfExpiredOtps() {
+        ReflectionTestUtils.setField(service, "cleanupEnabled", true);
+        ReflectionTestUtils.setField(service, "otpLifetime", 3_600_000L);
+        LocalDateTime expected = LocalDateTime.now().minusHours(1);
+        when(otpRevocationRepository.deleteCreatedBefore(any())).thenReturn(2);
+
+        service.deleteExpiredRevocations();
+
+        verify(otpRevocationRepository).deleteCreatedBefore(argThat(before -> !before.isBefore(expected)
+                && before.isBefore(expected.plusMinutes(1))));
+    }
+
     @Test
-    void getOtpRevocationsTest() {
-        OtpRevocationRepository otpRevocationRepository = mock(OtpRevocationRepository.class);
-        var otpRevocation = mock(OtpRevocation.class);
-        when(otpRevocationRepository.findAll()).thenReturn(List.of(otpRevocation));
-        OtpRevocationService service = new OtpRevocationService(otpRevocationRepository);
+    void addRevokedJtiBeforeTheFirstLoad_keepsTheJti() {
+        when(otpRevocationRepository.findAllJtis()).thenReturn(List.of("jti-1"));
+
+        service.addRevokedJti("jti-2");
+
+        assertTrue(service.isRevoked("jti-1"));
+        assertTrue(service.isRevoked("jti-2"));
+    }
+
+    @Test
+    void keepsOldRevocationOfLongTermOtp_withoutOtpLifetime() {
+        ReflectionTestUtils.setField(service, "cleanupEnabled", true);
+        ReflectionTestUtils.setField(service, "fullSyncInterval", 0L);
+        when(otpRevocationRepository.findLatestCreatedAt()).thenReturn(LocalDateTime.now().minusDays(30));
+        when(otpRevocationRepository.findAllJtis()).thenReturn(List.of("ltotp-jti"));
+        Instant issuedAt = Instant.now().minus(Duration.ofDays(31));
+
+        service.deleteExpiredRevocations();
+        service.refresh();
+
+        assertTrue(service.isRevoked("ltotp-jti"));
+        assertTrue(service.keepsRevocationsFor(issuedAt, issuedAt.plus(Duration.ofDays(365))));
+        assertTrue(service.keepsRevocationsFor(issuedAt, null));
+        verify(otpRevocationRepository, never()).deleteCreatedBefore(any());
+        verify(otpRevocationRepository, never()).findAllJtisCreatedSince(any());
+    }
+
+    @Test
+    void doesNotKeepRevocationsOfOtpsValidLongerThanTheOtpLifetime() {
+        ReflectionTestUtils.setField(service, "otpLifetime", Duration.ofDays(1).toMillis());
+        Instant issuedAt = Instant.now();
+
+        assertTrue(service.keepsRevocationsFor(issuedAt, issuedAt.plus(Duration.ofHours(12))));
+        assertFalse(service.keepsRevocationsFor(issuedAt, issuedAt.plus(Duration.ofDays(365))));
+        assertFalse(service.keepsRevocationsFor(issuedAt, null));
+        assertFalse(service.keepsRevocationsFor(null, issuedAt.plus(Duration.ofHours(12))));
+    }
 
-        List<OtpRevocation> result = service.getOtpRevocations();
-        assertEquals(otpRevocation, result.get(0));
+    private static RevokedJti revokedJti(String jti, LocalDateTime createdAt) {
+        RevokedJti revokedJti = mock(RevokedJti.class);
+        when(revokedJti.getJti()).thenReturn(jti);
+        when(revokedJti.getCreatedAt()).thenReturn(createdAt);
+        return revokedJti;
     }
 }
@@ -0,0 +1,172 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import ch.admin.bag.covidcertificate.gateway.service.SecKpiEventSink.RingBuffer;
+import ch.admin.bag.covidcertificate.gateway.service.SecKpiEventSink.SecKpiEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static ch.admin.bag.covidcertificate.gateway.Constants.KPI_OTP_TYPE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class SecKpiEventSinkTest {
+
+    private final KpiDataWriter kpiDataWriter = mock(KpiDataWriter.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void persistsEvents_onBackgroundThread() throws InterruptedException {
+        SecKpiEventSink sink = new SecKpiEventSink(16, kpiDataWriter, meterRegistry);
+
+        for (int i = 0; i < 3; i++) {
+            sink.publish(event("user" + i));
+        }
+        sink.shutdown();
+
+        for (int i = 0; i < 3; i++) {
+            verify(kpiDataWriter).submit(any(LocalDateTime.class), eq(KPI_OTP_TYPE), eq("user" + i));
+        }
+        assertEquals(3, meterRegistry.get("cc.api.gateway.sec.kpi.published").counter().count());
+    }
+
+    @Test
+    void wakesUpBackgroundThread_forEventsPublishedWhileIdle() throws InterruptedException {
+        SecKpiEventSink sink = new SecKpiEventSink(16, kpiDataWriter, meterRegistry);
+
+        sink.publish(event("first"));
+        verify(kpiDataWriter, timeout(5_000)).submit(any(LocalDateTime.class), anyString(), eq("first"));
+        Thread.sleep(50);
+        sink.publish(event("second"));
+
+        verify(kpiDataWriter, timeout(5_000)).submit(any(LocalDateTime.class), anyString(), eq("second"));
+        sink.shutdown();
+    }
+
+    @Test
+    void logsEvents_withMdcOfRequestThread() throws InterruptedException {
+        AtomicReference<String> requestId = new AtomicReference<>();
+        doAnswer(invocation -> {
+            requestId.set(MDC.get("requestId"));
+            return null;
+        }).when(kpiDataWriter).submit(any(LocalDateTime.class), anyString(), anyString());
+        SecKpiEventSink sink = new SecKpiEventSink(16, kpiDataWriter, meterRegistry);
+
+        MDC.put("requestId", "4711");
+        try {
+            sink.publish(event("user"));
+        } finally {
+            MDC.clear();
+        }
+        sink.shutdown();
+
+        assertEquals("4711", requestId.get());
+    }
+
+    @Test
+    void persistsEvents_onCallingThread_ifDisabled() {
+        SecKpiEventSink sink = SecKpiEventSink.disabled(kpiDataWriter);
+
+        sink.publish(event("user"));
+
+        verify(kpiDataWriter).submit(any(LocalDateTime.class), eq(KPI_OTP_TYPE), eq("user"));
+    }
+
+    @Test
+    void dropsEvents_ifRingBufferIsFull() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        doAnswer(invocation -> blocked.await(10, TimeUnit.SECONDS))
+                .when(kpiDataWriter).submit(any(LocalDateTime.class), anyString(), eq("first"));
+        SecKpiEventSink sink = new SecKpiEventSink(2, kpiDataWriter, meterRegistry);
+
+        sink.publish(event("first"));
+        verify(kpiDataWriter, timeout(5_000)).submit(any(LocalDateTime.class), anyString(), eq("first"));
+        for (int i = 0; i < 5; i++) {
+            sink.publish(event("next"));
+        }
+        blocked.countDown();
+        sink.shutdown();
+
+        verify(kpiDataWriter, times(2)).submit(any(LocalDateTime.class), anyString(), eq("next"));
+        assertEquals(3, dropped("overflow"));
+    }
+
+    @Test
+    void countsFailedEvents() throws InterruptedException {
+        doThrow(new IllegalStateException("full")).when(kpiDataWriter).submit(any(LocalDateTime.class), anyString(), anyString());
+        SecKpiEventSink sink = new SecKpiEventSink(16, kpiDataWriter, meterRegistry);
+
+        sink.publish(event("user"));
+        sink.shutdown();
+
+        assertEquals(1, dropped("error"));
+    }
+
+    @Test
+    void ringBufferDeliversEveryElementOnce_withConcurrentProducers() throws InterruptedException {
+        RingBuffer<Integer> ringBuffer = new RingBuffer<>(64);
+        int producers = 4;
+        int perProducer = 10_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int offset = p * perProducer;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!ringBuffer.offer(offset + i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        boolean[] received = new boolean[producers * perProducer];
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        for (int count = 0; count < received.length && System.nanoTime() < deadline; ) {
+            Integer element = ringBuffer.poll();
+            if (element == null) {
+                Thread.yield();
+            } else {
+                assertFalse(received[element]);
+                received[element] = true;
+                count++;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (boolean element : received) {
+            assertTrue(element);
+        }
+        assertNull(ringBuffer.poll());
+        assertEquals(0, ringBuffer.size());
+    }
+
+    private static SecKpiEvent event(String userExtId) {
+        return new SecKpiEvent(LocalDateTime.now(), "jti", "otp", "127.0.0.1", userExtId, "idp");
+    }
+
+    private double dropped(String reason) {
+        return meterRegistry.get("cc.api.gateway.sec.kpi.dropped").tag("reason", reason).counter().count();
+    }
+}
@@ -0,0 +1,76 @@
+package ch.admin.bag.covidcertificate.gateway.service;
+
+import ch.admin.bag.covidcertificate.gateway.service.model.UserAuthorizationData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class VerifiedTokenCacheTest {
+
+    private static final Instant NOW = Instant.parse("2026-10-17T10:00:00Z");
+    private static final UserAuthorizationData AUTHORIZATION_DATA = new UserAuthorizationData("user", "idp", List.of());
+
+    private SimpleMeterRegistry meterRegistry;
+    private VerifiedTokenCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new VerifiedTokenCache(2, Duration.ofMinutes(5), meterRegistry, Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    void returnsCachedToken_untilTimeToLive() {
+        cache.put("token", AUTHORIZATION_DATA, "jti", "ltotp", null, NOW.plus(Duration.ofHours(12)));
+
+        var cached = cache.get("token");
+
+        assertSame(AUTHORIZATION_DATA, cached.authorizationData());
+        assertEquals("jti", cached.jti());
+        assertEquals("ltotp", cached.otpType());
+        assertEquals(NOW.plus(Duration.ofMinutes(5)), cached.expiresAt());
+        assertNull(cache.get("other"));
+        assertEquals(1, counter("hit"));
+        assertEquals(1, counter("miss"));
+    }
+
+    @Test
+    void doesNotReturnToken_afterItExpired() {
+        cache.put("token", AUTHORIZATION_DATA, "jti", "otp", null, NOW);
+
+        assertNull(cache.get("token"));
+        assertEquals(0, counter("hit"));
+    }
+
+    @Test
+    void evictsTokens_ifFull() {
+        cache.put("first", AUTHORIZATION_DATA, "1", "otp", null, null);
+        cache.put("second", AUTHORIZATION_DATA, "2", "otp", null, null);
+        cache.get("first");
+        cache.put("third", AUTHORIZATION_DATA, "3", "otp", null, null);
+
+        assertEquals(2, meterRegistry.get("cc.api.gateway.jwt.cache.size").gauge().value());
+    }
+
+    @Test
+    void cachesNothing_ifDisabled() {
+        VerifiedTokenCache disabled = VerifiedTokenCache.disabled();
+        disabled.put("token", AUTHORIZATION_DATA, "jti", "otp", null, null);
+
+        assertNull(disabled.get("token"));
+    }
+
+    private double counter(String result) {
+        return meterRegistry.get("cc.api.gateway.jwt.cache").tag("result", result).counter().count();
+    }
+}
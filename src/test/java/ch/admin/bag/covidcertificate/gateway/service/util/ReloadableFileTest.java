@@ -0,0 +1,60 @@
+package ch.admin.bag.covidcertificate.gateway.service.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReloadableFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void reloadsOnlyModifiedFile_andKeepsEntriesIfFileIsBroken() throws IOException {
+        Path file = tempDir.resolve("entries.txt");
+        Files.writeString(file, "first");
+        AtomicInteger parsed = new AtomicInteger();
+        ReloadableFile<String> reloadableFile = new ReloadableFile<>(file, "entries", location -> {
+            parsed.incrementAndGet();
+            String content = Files.readString(location);
+            if (content.isEmpty()) {
+                throw new IOException("Empty");
+            }
+            return Map.of(content, content);
+        });
+        assertEquals(Map.of("first", "first"), reloadableFile.entries());
+
+        reloadableFile.reloadIfModified();
+        assertEquals(1, parsed.get());
+
+        Files.writeString(file, "second");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(10)));
+        reloadableFile.reloadIfModified();
+        assertEquals(Map.of("second", "second"), reloadableFile.entries());
+
+        Files.writeString(file, "");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(20)));
+        reloadableFile.reloadIfModified();
+        assertEquals(Map.of("second", "second"), reloadableFile.entries());
+        assertEquals(3, parsed.get());
+    }
+
+    @Test
+    void staysEmpty_withoutLocation() {
+        ReloadableFile<String> reloadableFile = new ReloadableFile<>(null, "entries", location -> Map.of("key", "value"));
+
+        reloadableFile.reloadIfModified();
+
+        assertTrue(reloadableFile.entries().isEmpty());
+    }
+}
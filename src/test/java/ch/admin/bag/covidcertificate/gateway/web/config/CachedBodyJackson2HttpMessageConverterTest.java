@@ -0,0 +1,67 @@
+package ch.admin.bag.covidcertificate.gateway.web.config;
+
+import ch.admin.bag.covidcertificate.gateway.filters.BodyBufferPool;
+import ch.admin.bag.covidcertificate.gateway.filters.CachedBodyHttpServletRequest;
+import ch.admin.bag.covidcertificate.gateway.service.dto.incoming.UvciForRevocationDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CachedBodyJackson2HttpMessageConverterTest {
+
+    private final CachedBodyJackson2HttpMessageConverter converter = new CachedBodyJackson2HttpMessageConverter(new ObjectMapper());
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void readsCachedBody_insteadOfInputStream() throws IOException {
+        bindCachedBodyRequest("{\"uvci\": \"urn:uvci:01:CH:1234\"}");
+        MockHttpInputMessage inputMessage = new MockHttpInputMessage(new byte[0]);
+        inputMessage.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+
+        UvciForRevocationDto result = (UvciForRevocationDto) converter.read(UvciForRevocationDto.class, null, inputMessage);
+
+        assertEquals("urn:uvci:01:CH:1234", result.getUvci());
+    }
+
+    @Test
+    void readsInputStream_ifNoCachedBodyIsPresent() throws IOException {
+        MockHttpInputMessage inputMessage = new MockHttpInputMessage("{\"uvci\": \"urn:uvci:01:CH:5678\"}".getBytes(StandardCharsets.UTF_8));
+        inputMessage.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+
+        UvciForRevocationDto result = (UvciForRevocationDto) converter.read(UvciForRevocationDto.class, null, inputMessage);
+
+        assertEquals("urn:uvci:01:CH:5678", result.getUvci());
+    }
+
+    @Test
+    void throwsNotReadable_ifCachedBodyIsInvalid() throws IOException {
+        bindCachedBodyRequest("{\"uvci\": ");
+        MockHttpInputMessage inputMessage = new MockHttpInputMessage(new byte[0]);
+        inputMessage.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+
+        assertThrows(HttpMessageNotReadableException.class, () -> converter.read(UvciForRevocationDto.class, null, inputMessage));
+    }
+
+    private void bindCachedBodyRequest(String body) throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContent(body.getBytes(StandardCharsets.UTF_8));
+        CachedBodyHttpServletRequest cachedBodyRequest = new CachedBodyHttpServletRequest(request, new BodyBufferPool(64, 1), 1024);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(cachedBodyRequest));
+    }
+}
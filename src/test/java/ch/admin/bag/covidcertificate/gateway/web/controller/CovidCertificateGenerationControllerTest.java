@@ -31,7 +31,6 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultMatcher;
 
-import static ch.admin.bag.covidcertificate.gateway.Constants.KPI_TYPE_RECOVERY;
 import static ch.admin.bag.covidcertificate.gateway.FixtureCustomization.customizeAntibodyCertificateCreateDto;
 import static ch.admin.bag.covidcertificate.gateway.FixtureCustomization.customizeRecoveryCertificateCreateDto;
 import static ch.admin.bag.covidcertificate.gateway.FixtureCustomization.customizeRecoveryRatCertificateCreateDto;
@@ -42,7 +41,7 @@ import static ch.admin.bag.covidcertificate.gateway.error.ErrorList.INVALID_BEAR
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.anyList;
 import static org.mockito.Mockito.argThat;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
@@ -474,7 +473,7 @@ class CovidCertificateGenerationControllerTest {
 
             verify(authorizationService, times(1)).validateAndGetId(any(), any(), any());
             verify(generationService, never()).createCovidCertificate(any(RecoveryRatCertificateCreateDto.class), eq(null));
-            verify(kpiDataService, never()).saveKpiData(any(), eq(KPI_TYPE_RECOVERY), any(), anyString(), anyString(), anyString());
+            verify(kpiDataService, never()).saveKpiData(anyList());
         }
 
         @Test